@@ -0,0 +1,82 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Feature;
+import com.lxd.grpcl.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code GetFeature} lookups through each {@link PointIndex} implementation, for locations that hold a
+ * feature and for locations that do not.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@State(Scope.Benchmark)
+public class CheckFeatureBenchmark {
+    private static final int QUERIES = 1024;
+
+    @Param({"100", "10000", "1000000", "10000000"})
+    int size;
+
+    /** {@code hash}, {@code sorted} (binary search over a location-sorted store) or {@code scan}. */
+    @Param({"hash", "sorted", "scan"})
+    String index;
+
+    private IndexedFeatureStore features;
+    private Point[] hits;
+    private Point[] misses;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FeatureStore store = SyntheticFeatures.store(size);
+        PointIndex pointIndex;
+        if ("hash".equals(index)) {
+            pointIndex = HashPointIndex.build(store);
+        } else if ("sorted".equals(index)) {
+            store = FeatureDatabaseFile.sortByLocation(store);
+            pointIndex = new SortedPointIndex(store);
+        } else {
+            pointIndex = PointIndex.scan(store);
+        }
+        features = new IndexedFeatureStore(store, pointIndex, null);
+
+        Random random = new Random(7);
+        hits = new Point[QUERIES];
+        misses = new Point[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            int position = random.nextInt(size);
+            hits[i] = Point.newBuilder().setLatitude(store.latitude(position))
+                    .setLongitude(store.longitude(position)).build();
+            // Synthetic coordinates never leave the United States.
+            misses[i] = Point.newBuilder().setLatitude(-SyntheticFeatures.latitude(random))
+                    .setLongitude(SyntheticFeatures.longitude(random)).build();
+        }
+    }
+
+    @Benchmark
+    public Feature hit() {
+        return features.checkFeature(hits[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public Feature miss() {
+        return features.checkFeature(misses[next++ & (QUERIES - 1)]);
+    }
+}
@@ -0,0 +1,98 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The distance computation {@code RecordRoute} runs for every received point: the original haversine
+ * per pair of points, a {@link GeoDistance.Track} and the {@link GeoDistance#hopDistances} batch.
+ * Every benchmark walks the same route and reports the time per hop.
+ *
+ * <p>{@code hop} is {@code short} for a route of consecutive hops of up to about 1 km, the common
+ * case, or {@code long} for points spread over the whole United States, which always take the
+ * haversine formula.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DistanceBenchmark {
+    private static final int POINTS = 1024;
+
+    @Param({"short", "long"})
+    public String hop;
+
+    private Point[] points;
+    private int[] latitudes;
+    private int[] longitudes;
+    private double[] distances;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(7);
+        points = new Point[POINTS];
+        latitudes = new int[POINTS];
+        longitudes = new int[POINTS];
+        distances = new double[POINTS - 1];
+        int lat = SyntheticFeatures.latitude(random);
+        int lon = SyntheticFeatures.longitude(random);
+        for (int i = 0; i < POINTS; i++) {
+            if ("short".equals(hop)) {
+                // Up to 0.01 degrees, about 1 km, per hop.
+                lat += random.nextInt(200000) - 100000;
+                lon += random.nextInt(200000) - 100000;
+            } else {
+                lat = SyntheticFeatures.latitude(random);
+                lon = SyntheticFeatures.longitude(random);
+            }
+            latitudes[i] = lat;
+            longitudes[i] = lon;
+            points[i] = Point.newBuilder().setLatitude(lat).setLongitude(lon).build();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS - 1)
+    public long calcDistance() {
+        long distance = 0;
+        for (int i = 1; i < POINTS; i++) {
+            distance += RouteGuideUtil.calcDistance(points[i - 1], points[i]);
+        }
+        return distance;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS - 1)
+    public double track() {
+        GeoDistance.Track track = new GeoDistance.Track(true);
+        double distance = track.moveTo(points[0]);
+        for (int i = 1; i < POINTS; i++) {
+            distance += track.moveTo(points[i]);
+        }
+        return distance;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS - 1)
+    public double[] hopDistances() {
+        GeoDistance.hopDistances(latitudes, longitudes, POINTS, distances);
+        return distances;
+    }
+}
@@ -0,0 +1,81 @@
+package com.lxd.route;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The rectangle filtering of {@code ListFeatures} through each {@link SpatialIndex.Kind}, for
+ * rectangles covering a given fraction of the area holding features.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@State(Scope.Benchmark)
+public class ListFeaturesBenchmark {
+    private static final int QUERIES = 256;
+
+    @Param({"100", "10000", "1000000", "10000000"})
+    int size;
+
+    @Param({"RTREE", "GRID", "SCAN"})
+    String kind;
+
+    /** Area of the rectangles relative to the area holding features. */
+    @Param({"0.0001", "0.01"})
+    double coverage;
+
+    private IndexedFeatureStore features;
+    private int[][] rectangles;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FeatureStore store = SyntheticFeatures.store(size);
+        features = new IndexedFeatureStore(store, null, SpatialIndex.Kind.valueOf(kind).build(store));
+
+        double side = Math.sqrt(coverage);
+        int height = (int) ((SyntheticFeatures.MAX_LAT - SyntheticFeatures.MIN_LAT) * side);
+        int width = (int) ((SyntheticFeatures.MAX_LON - SyntheticFeatures.MIN_LON) * side);
+        Random random = new Random(7);
+        rectangles = new int[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            int lat = SyntheticFeatures.MIN_LAT + random.nextInt(SyntheticFeatures.MAX_LAT - SyntheticFeatures.MIN_LAT - height);
+            int lon = SyntheticFeatures.MIN_LON + random.nextInt(SyntheticFeatures.MAX_LON - SyntheticFeatures.MIN_LON - width);
+            rectangles[i] = new int[] {lat, lon, lat + height, lon + width};
+        }
+    }
+
+    /** Collects the matching positions, as {@code ListFeatures} does before streaming. */
+    @Benchmark
+    public IntList search() {
+        int[] r = rectangles[next++ & (QUERIES - 1)];
+        IntList matches = new IntList();
+        features.spatialIndex.search(r[0], r[1], r[2], r[3], matches);
+        return matches;
+    }
+
+    /** Also materializes every matching feature, which is all {@code ListFeatures} does besides sending. */
+    @Benchmark
+    public void searchAndMaterialize(Blackhole blackhole) {
+        IntList matches = search();
+        for (int i = 0; i < matches.size(); i++) {
+            blackhole.consume(features.features.feature(matches.get(i)));
+        }
+    }
+}
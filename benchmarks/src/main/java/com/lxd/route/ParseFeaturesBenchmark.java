@@ -0,0 +1,75 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Feature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a JSON feature database with {@link RouteGuideUtil#parseFeatures}, which builds the whole
+ * protobuf message tree, against the loaders that stream it into a {@link ColumnarFeatureStore}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@State(Scope.Benchmark)
+public class ParseFeaturesBenchmark {
+
+    @Param({"100", "10000", "1000000", "10000000"})
+    int size;
+
+    private Path file;
+    private URL url;
+    private ParallelFeatureLoader parallelLoader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("features", ".json");
+        SyntheticFeatures.writeJson(size, file);
+        url = file.toUri().toURL();
+        parallelLoader = new ParallelFeatureLoader();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        parallelLoader.shutdown();
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public List<Feature> parseFeatures() throws IOException {
+        return RouteGuideUtil.parseFeatures(url);
+    }
+
+    @Benchmark
+    public ColumnarFeatureStore streaming() throws IOException {
+        ColumnarFeatureStore.Builder builder = new ColumnarFeatureStore.Builder();
+        new StreamingFeatureLoader().load(url, builder);
+        return builder.build();
+    }
+
+    @Benchmark
+    public ColumnarFeatureStore parallel() throws IOException {
+        return parallelLoader.load(Collections.singletonList(file));
+    }
+}
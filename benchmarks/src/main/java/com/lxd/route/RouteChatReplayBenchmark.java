@@ -0,0 +1,87 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Point;
+import com.lxd.grpcl.RouteNote;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storing a {@code RouteChat} note and replaying the notes previously sent at its location, for a
+ * few busy locations or many quiet ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@State(Scope.Benchmark)
+public class RouteChatReplayBenchmark {
+    private static final int NOTES = 4096;
+
+    @Param({"10", "1000"})
+    int notesPerLocation;
+
+    @Param({"1", "100", "100000"})
+    int locations;
+
+    private RouteNoteStore store;
+    private RouteNote[] notes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = new RouteNoteStore(notesPerLocation, 1L << 30, 64);
+        Random random = new Random(7);
+        notes = new RouteNote[NOTES];
+        for (int i = 0; i < NOTES; i++) {
+            int location = random.nextInt(locations);
+            notes[i] = RouteNote.newBuilder().setMessage("Message " + i)
+                    .setLocation(Point.newBuilder().setLatitude(location / 1000).setLongitude(location % 1000))
+                    .build();
+        }
+        // Fill every location up to its window so replays have their steady state length.
+        RouteNoteStore.Cursor cursor = new RouteNoteStore.Cursor();
+        for (int i = 0; i < locations; i++) {
+            for (int j = 0; j < notesPerLocation; j++) {
+                store.append(RouteNote.newBuilder().setMessage("Warm " + j)
+                        .setLocation(Point.newBuilder().setLatitude(i / 1000).setLongitude(i % 1000))
+                        .build(), cursor);
+            }
+        }
+    }
+
+    /** Per-thread call state, like the cursor every {@code RouteChat} call keeps. */
+    @State(Scope.Thread)
+    public static class Call {
+        final RouteNoteStore.Cursor cursor = new RouteNoteStore.Cursor();
+        int next;
+    }
+
+    @Benchmark
+    public void appendAndReplay(Call call, Blackhole blackhole) {
+        store.append(notes[call.next++ & (NOTES - 1)], call.cursor);
+        while (call.cursor.hasNext()) {
+            blackhole.consume(call.cursor.next());
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void appendAndReplayContended(Call call, Blackhole blackhole) {
+        appendAndReplay(call, blackhole);
+    }
+}
@@ -0,0 +1,113 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Feature;
+import com.lxd.grpcl.Point;
+import com.lxd.grpcl.Rectangle;
+import com.lxd.grpcl.RoutedGuideGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocking calls over loopback TCP against a server configured with each {@link ServerOptions}
+ * threading model. {@code VIRTUAL} is left out of the defaults since it needs Java 21; add it with
+ * {@code -p executor=VIRTUAL}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class ServerThreadingBenchmark {
+    private static final int QUERIES = 1024;
+
+    @Param({"DEFAULT", "DIRECT", "FORK_JOIN"})
+    String executor;
+
+    /** Worker event loop threads, 0 for the Netty default. */
+    @Param({"0", "1"})
+    int workerThreads;
+
+    @Param({"false", "true"})
+    boolean epoll;
+
+    private RouteGuideServer server;
+    private ManagedChannel channel;
+    private RoutedGuideGrpc.RoutedGuideBlockingStub stub;
+    private Point[] points;
+    private Rectangle[] rectangles;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        FeatureStore features = SyntheticFeatures.store(100_000);
+        ServerOptions options = new ServerOptions()
+                .executor(ServerOptions.ExecutorKind.valueOf(executor))
+                .workerThreads(workerThreads)
+                .epoll(epoll);
+        server = new RouteGuideServer(options, 0, features);
+        server.start();
+        channel = NettyChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        stub = RoutedGuideGrpc.newBlockingStub(channel);
+
+        Random random = new Random(7);
+        points = new Point[QUERIES];
+        rectangles = new Rectangle[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            int position = random.nextInt(features.size());
+            points[i] = Point.newBuilder().setLatitude(features.latitude(position))
+                    .setLongitude(features.longitude(position)).build();
+            // About 10 features each.
+            rectangles[i] = Rectangle.newBuilder()
+                    .setLo(points[i])
+                    .setHi(Point.newBuilder().setLatitude(features.latitude(position) + 2_400_000)
+                            .setLongitude(features.longitude(position) + 5_800_000))
+                    .build();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    /** Per-thread position in the queries. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = new Random().nextInt(QUERIES);
+    }
+
+    @Benchmark
+    public Feature getFeature(Cursor cursor) {
+        return stub.getFeature(points[cursor.next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public void listFeatures(Cursor cursor, Blackhole blackhole) {
+        Iterator<Feature> features = stub.listFeatures(rectangles[cursor.next++ & (QUERIES - 1)]);
+        while (features.hasNext()) {
+            blackhole.consume(features.next());
+        }
+    }
+}
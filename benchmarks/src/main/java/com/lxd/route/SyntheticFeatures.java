@@ -0,0 +1,66 @@
+package com.lxd.route;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates reproducible feature databases of any size for the benchmarks.
+ *
+ * <p>Features are spread uniformly over the continental United States; like the bundled database,
+ * about one in ten is unnamed.</p>
+ */
+final class SyntheticFeatures {
+    static final int MIN_LAT = 250000000;
+    static final int MAX_LAT = 490000000;
+    static final int MIN_LON = -1250000000;
+    static final int MAX_LON = -670000000;
+    private static final long SEED = 42;
+
+    private SyntheticFeatures() {
+    }
+
+    /** Returns a heap store of {@code size} features. */
+    static ColumnarFeatureStore store(int size) {
+        ColumnarFeatureStore.Builder builder = new ColumnarFeatureStore.Builder(size);
+        Random random = new Random(SEED);
+        for (int i = 0; i < size; i++) {
+            builder.add(latitude(random), longitude(random), name(random, i));
+        }
+        return builder.build();
+    }
+
+    /** Writes {@code size} features to {@code file} in the JSON format of route_guide_db.json. */
+    static void writeJson(int size, Path file) throws IOException {
+        Random random = new Random(SEED);
+        Writer out = new BufferedWriter(Files.newBufferedWriter(file, Charset.forName("UTF-8")), 1 << 16);
+        try {
+            out.write("{\n  \"feature\": [");
+            for (int i = 0; i < size; i++) {
+                out.write(i == 0 ? "{" : ", {");
+                out.write("\n    \"location\": {\n      \"latitude\": " + latitude(random)
+                        + ",\n      \"longitude\": " + longitude(random)
+                        + "\n    },\n    \"name\": \"" + name(random, i) + "\"\n  }");
+            }
+            out.write("]\n}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    static int latitude(Random random) {
+        return MIN_LAT + random.nextInt(MAX_LAT - MIN_LAT);
+    }
+
+    static int longitude(Random random) {
+        return MIN_LON + random.nextInt(MAX_LON - MIN_LON);
+    }
+
+    private static String name(Random random, int index) {
+        return random.nextInt(10) == 0 ? "" : "Feature " + index + ", Somewhere, USA";
+    }
+}
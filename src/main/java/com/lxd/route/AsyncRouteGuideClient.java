@@ -0,0 +1,277 @@
+package com.lxd.route;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.lxd.grpcl.Feature;
+import com.lxd.grpcl.FeatureBatch;
+import com.lxd.grpcl.Point;
+import com.lxd.grpcl.PointBatch;
+import com.lxd.grpcl.Rectangle;
+import com.lxd.grpcl.RouteSummary;
+import com.lxd.grpcl.RoutedGuideGrpc;
+import io.grpc.Channel;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Non-blocking RouteGuide client. Every method returns immediately, so a few threads can keep
+ * thousands of calls in flight.
+ *
+ * <p>Unary calls complete a {@link CompletableFuture}; cancelling it cancels the call. Streamed
+ * results are offered as a reactive-streams {@link Publisher} that starts a call per subscriber and
+ * only receives as many messages from the server as the subscriber requested.</p>
+ */
+public class AsyncRouteGuideClient {
+
+    private final RoutedGuideGrpc.RoutedGuideFutureStub futureStub;
+
+    private final RoutedGuideGrpc.RoutedGuideStub asyncStub;
+
+    public AsyncRouteGuideClient(Channel channel) {
+        this.futureStub = RoutedGuideGrpc.newFutureStub(channel);
+        this.asyncStub = RoutedGuideGrpc.newStub(channel);
+    }
+
+    /** Gets the feature at {@code location}, or an unnamed feature if there is none. */
+    public CompletableFuture<Feature> getFeature(Point location) {
+        return toCompletableFuture(futureStub.getFeature(location));
+    }
+
+    /** Gets the feature at every point of {@code locations} in one call, in order. */
+    public CompletableFuture<List<Feature>> getFeatures(List<Point> locations) {
+        return toCompletableFuture(futureStub.getFeatures(PointBatch.newBuilder().addAllPoint(locations).build()))
+                .thenApply(new Function<FeatureBatch, List<Feature>>() {
+                    @Override
+                    public List<Feature> apply(FeatureBatch batch) {
+                        return batch.getFeatureList();
+                    }
+                });
+    }
+
+    /**
+     * Publishes the features inside {@code rectangle}. Every subscription runs its own
+     * {@code ListFeatures} call, which the server only streams as fast as the subscriber requests.
+     */
+    public Publisher<Feature> listFeatures(final Rectangle rectangle) {
+        return new Publisher<Feature>() {
+            @Override
+            public void subscribe(Subscriber<? super Feature> subscriber) {
+                if (subscriber == null) {
+                    throw new NullPointerException("subscriber");
+                }
+                CallSubscription<Rectangle, Feature> subscription = new CallSubscription<>(subscriber);
+                // No signal may precede onSubscribe, so the call only starts once it returned.
+                subscriber.onSubscribe(subscription);
+                if (!subscription.done) {
+                    asyncStub.listFeatures(rectangle, subscription);
+                    subscription.started();
+                }
+            }
+        };
+    }
+
+    /** Collects every feature inside {@code rectangle}. */
+    public CompletableFuture<List<Feature>> listAllFeatures(Rectangle rectangle) {
+        final CompletableFuture<List<Feature>> result = new CompletableFuture<>();
+        asyncStub.listFeatures(rectangle, new StreamObserver<Feature>() {
+            private final List<Feature> features = new ArrayList<>();
+
+            @Override
+            public void onNext(Feature feature) {
+                features.add(feature);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onCompleted() {
+                result.complete(features);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Records a route through {@code points}. Points are taken from the iterator only while the
+     * transport can send them, so a long route is never buffered whole.
+     */
+    public CompletableFuture<RouteSummary> recordRoute(final Iterator<Point> points) {
+        final CompletableFuture<RouteSummary> result = new CompletableFuture<>();
+        asyncStub.recordRoute(new ClientResponseObserver<Point, RouteSummary>() {
+            @Override
+            public void beforeStart(final ClientCallStreamObserver<Point> call) {
+                call.setOnReadyHandler(new Runnable() {
+                    private boolean halfClosed;
+
+                    @Override
+                    public void run() {
+                        while (!halfClosed && call.isReady()) {
+                            if (!points.hasNext()) {
+                                halfClosed = true;
+                                call.onCompleted();
+                                return;
+                            }
+                            call.onNext(points.next());
+                        }
+                    }
+                });
+                cancelOnCancel(result, call);
+            }
+
+            @Override
+            public void onNext(RouteSummary summary) {
+                result.complete(summary);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+        return result;
+    }
+
+    private static <T> CompletableFuture<T> toCompletableFuture(final ListenableFuture<T> future) {
+        final CompletableFuture<T> result = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                future.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                result.complete(value);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    private static void cancelOnCancel(final CompletableFuture<?> result, final ClientCallStreamObserver<?> call) {
+        result.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object value, Throwable throwable) {
+                if (result.isCancelled()) {
+                    call.cancel("Cancelled by the caller", null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Bridges a call with a streamed response to a reactive-streams subscriber, translating demand
+     * into {@link ClientCallStreamObserver#request(int)}. The subscriber gets the subscription before
+     * the call starts, so demand requested until then is kept and forwarded once it has.
+     */
+    private static final class CallSubscription<ReqT, RespT> implements ClientResponseObserver<ReqT, RespT>,
+            Subscription {
+        private final Subscriber<? super RespT> subscriber;
+        private ClientCallStreamObserver<ReqT> call;
+        private boolean started;
+        /** Demand requested before the call started. */
+        private long pending;
+        /** Demand is no longer counted once it reached {@link Integer#MAX_VALUE} at once. */
+        private boolean unbounded;
+        /** Set once cancelled or terminated, after which the subscriber gets no more signals. */
+        private volatile boolean done;
+
+        CallSubscription(Subscriber<? super RespT> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void beforeStart(ClientCallStreamObserver<ReqT> call) {
+            this.call = call;
+            // Nothing is requested on the subscriber's behalf, so it gets exactly what it asked for.
+            call.disableAutoRequestWithInitial(0);
+        }
+
+        /** Forwards the demand requested before the call started. */
+        synchronized void started() {
+            started = true;
+            if (pending > 0 && !done) {
+                call.request((int) pending);
+            }
+            pending = 0;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (done || unbounded) {
+                return;
+            }
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Requested " + n + " elements, must be positive"));
+                return;
+            }
+            // Demand beyond Integer.MAX_VALUE is unbounded in practice.
+            unbounded = n >= Integer.MAX_VALUE - pending;
+            if (!started) {
+                pending = Math.min(pending + Math.min(n, Integer.MAX_VALUE), Integer.MAX_VALUE);
+                return;
+            }
+            call.request((int) Math.min(n, Integer.MAX_VALUE));
+        }
+
+        @Override
+        public synchronized void cancel() {
+            if (!done) {
+                done = true;
+                // Before the call exists, subscribe() sees done and never starts it.
+                if (call != null) {
+                    call.cancel("Subscription cancelled", null);
+                }
+            }
+        }
+
+        @Override
+        public void onNext(RespT value) {
+            if (!done) {
+                subscriber.onNext(value);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (!done) {
+                done = true;
+                subscriber.onError(throwable);
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            if (!done) {
+                done = true;
+                subscriber.onComplete();
+            }
+        }
+    }
+}
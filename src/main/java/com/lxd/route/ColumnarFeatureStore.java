@@ -0,0 +1,224 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Feature;
+import com.lxd.grpcl.Point;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * {@link FeatureStore} keeping latitudes, longitudes and name offsets in primitive int columns and
+ * all names in a single UTF-8 byte arena.
+ *
+ * <p>The columns are NIO buffers, so they can be plain heap arrays, direct (off-heap) memory or a
+ * memory-mapped file. The name of feature {@code i} is the arena slice
+ * {@code [nameOffset[i], nameOffset[i + 1])}.</p>
+ */
+public final class ColumnarFeatureStore implements FeatureStore {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** Largest array the JVM reliably allocates. */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    /** Most features a builder holds, leaving room for the trailing name offset. */
+    private static final int MAX_FEATURES = MAX_ARRAY_LENGTH - 1;
+
+    private final int size;
+    private final IntBuffer latitudes;
+    private final IntBuffer longitudes;
+    private final IntBuffer nameOffsets;
+    private final ByteBuffer names;
+
+    /**
+     * Wraps existing columns. {@code nameOffsets} must hold {@code size + 1} entries, the last one
+     * being the length of the used part of {@code names}.
+     */
+    ColumnarFeatureStore(int size, IntBuffer latitudes, IntBuffer longitudes, IntBuffer nameOffsets,
+                         ByteBuffer names) {
+        this.size = size;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.nameOffsets = nameOffsets;
+        this.names = names;
+    }
+
+    /** Copies {@code features} into a new heap store. */
+    public static ColumnarFeatureStore of(Collection<Feature> features) {
+        Builder builder = new Builder(features.size());
+        for (Feature feature : features) {
+            builder.add(feature);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int latitude(int index) {
+        return latitudes.get(index);
+    }
+
+    @Override
+    public int longitude(int index) {
+        return longitudes.get(index);
+    }
+
+    @Override
+    public boolean exists(int index) {
+        return nameOffsets.get(index + 1) > nameOffsets.get(index);
+    }
+
+    @Override
+    public String name(int index) {
+        int start = nameOffsets.get(index);
+        int length = nameOffsets.get(index + 1) - start;
+        if (length == 0) {
+            return "";
+        }
+        if (names.hasArray()) {
+            return new String(names.array(), names.arrayOffset() + start, length, UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = names.get(start + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    @Override
+    public Feature feature(int index) {
+        return Feature.newBuilder()
+                .setName(name(index))
+                .setLocation(Point.newBuilder().setLatitude(latitude(index)).setLongitude(longitude(index)))
+                .build();
+    }
+
+    /** Accumulates features into growable columns. */
+    public static final class Builder implements FeatureSink {
+        private int size;
+        private int[] latitudes;
+        private int[] longitudes;
+        private int[] nameOffsets;
+        private byte[] names;
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int expectedSize) {
+            // Only a first guess, add() grows the columns and the arena as needed.
+            int capacity = Math.min(Math.max(expectedSize, 1), MAX_FEATURES);
+            latitudes = new int[capacity];
+            longitudes = new int[capacity];
+            nameOffsets = new int[capacity + 1];
+            names = new byte[(int) Math.min(16L * capacity, MAX_ARRAY_LENGTH)];
+        }
+
+        public Builder add(Feature feature) {
+            return add(feature.getLocation().getLatitude(), feature.getLocation().getLongitude(), feature.getName());
+        }
+
+        public Builder add(int latitude, int longitude, String name) {
+            if (size == latitudes.length) {
+                growColumns(size + 1L);
+            }
+            byte[] bytes = name.getBytes(UTF_8);
+            int offset = nameOffsets[size];
+            if (names.length - offset < bytes.length) {
+                growNames((long) offset + bytes.length);
+            }
+            System.arraycopy(bytes, 0, names, offset, bytes.length);
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            nameOffsets[size + 1] = offset + bytes.length;
+            size++;
+            return this;
+        }
+
+        /** Appends every feature accumulated by {@code other}, in order, without decoding names. */
+        public Builder append(Builder other) {
+            if (latitudes.length - size < other.size) {
+                growColumns((long) size + other.size);
+            }
+            int offset = nameOffsets[size];
+            int length = other.nameOffsets[other.size];
+            if (names.length - offset < length) {
+                growNames((long) offset + length);
+            }
+            System.arraycopy(other.latitudes, 0, latitudes, size, other.size);
+            System.arraycopy(other.longitudes, 0, longitudes, size, other.size);
+            System.arraycopy(other.names, 0, names, offset, length);
+            for (int i = 1; i <= other.size; i++) {
+                nameOffsets[size + i] = offset + other.nameOffsets[i];
+            }
+            size += other.size;
+            return this;
+        }
+
+        /** Grows the columns to hold at least {@code needed} features, doubling while it can. */
+        private void growColumns(long needed) {
+            if (needed > MAX_FEATURES) {
+                throw new IllegalStateException("More than " + MAX_FEATURES + " features");
+            }
+            int capacity = (int) Math.min(Math.max(2L * latitudes.length, needed), MAX_FEATURES);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+        }
+
+        /** Grows the name arena to hold at least {@code needed} bytes, doubling while it can. */
+        private void growNames(long needed) {
+            if (needed > MAX_ARRAY_LENGTH) {
+                throw new IllegalStateException("Feature names exceed 2GB");
+            }
+            names = Arrays.copyOf(names, (int) Math.min(Math.max(2L * names.length, needed), MAX_ARRAY_LENGTH));
+        }
+
+        @Override
+        public void accept(int latitude, int longitude, String name) {
+            add(latitude, longitude, name);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /** Builds a store backed by heap arrays. */
+        public ColumnarFeatureStore build() {
+            return new ColumnarFeatureStore(size,
+                    IntBuffer.wrap(Arrays.copyOf(latitudes, size)),
+                    IntBuffer.wrap(Arrays.copyOf(longitudes, size)),
+                    IntBuffer.wrap(Arrays.copyOf(nameOffsets, size + 1)),
+                    ByteBuffer.wrap(Arrays.copyOf(names, nameOffsets[size])));
+        }
+
+        /** Builds a store whose columns live in direct buffers, outside of the Java heap. */
+        public ColumnarFeatureStore buildOffHeap() {
+            return new ColumnarFeatureStore(size,
+                    directInts(latitudes, size),
+                    directInts(longitudes, size),
+                    directInts(nameOffsets, size + 1),
+                    directBytes(names, nameOffsets[size]));
+        }
+
+        private static IntBuffer directInts(int[] values, int length) {
+            if (length > Integer.MAX_VALUE / 4) {
+                throw new IllegalStateException("Columns of " + length + " features exceed 2GB");
+            }
+            IntBuffer buffer = ByteBuffer.allocateDirect(length * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+            buffer.duplicate().put(values, 0, length);
+            return buffer;
+        }
+
+        private static ByteBuffer directBytes(byte[] values, int length) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+            buffer.duplicate().put(values, 0, length);
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Feature;
+import com.lxd.grpcl.Point;
+import com.lxd.grpcl.Rectangle;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client-side cache of {@code GetFeature} results, keyed by the packed location.
+ *
+ * <p>At most {@code maxEntries} results are kept, the least recently used going first. Features
+ * expire after {@code ttl}; "no feature" results are cached too, as unnamed features, and expire
+ * after their own, usually shorter, {@code negativeTtl}. Hits, misses, evictions and expirations are
+ * counted, and {@link Listener}s are told about every removal, so a client can react to invalidations
+ * it learns about from elsewhere.</p>
+ *
+ * <p>All operations lock the whole cache; lookups are short, so this only matters to clients doing
+ * millions of lookups per second from many threads.</p>
+ */
+public final class FeatureCache {
+
+    /** Why an entry left the cache. */
+    public enum Removal {
+        /** Least recently used while the cache was full. */
+        EVICTED,
+        /** Found past its time to live. */
+        EXPIRED,
+        /** Removed through one of the {@code invalidate} methods. */
+        INVALIDATED
+    }
+
+    /** Told about every entry leaving the cache, while the cache is locked; must not call back into it. */
+    public interface Listener {
+        void onRemoval(Feature feature, Removal cause);
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final LinkedHashMap<Long, CachedFeature> entries;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public FeatureCache(int maxEntries, long ttl, long negativeTtl, TimeUnit unit) {
+        if (maxEntries <= 0 || ttl < 0 || negativeTtl < 0) {
+            throw new IllegalArgumentException("maxEntries must be positive and time to live not negative");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.negativeTtlNanos = unit.toNanos(negativeTtl);
+        this.entries = new LinkedHashMap<Long, CachedFeature>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedFeature> eldest) {
+                if (size() <= FeatureCache.this.maxEntries) {
+                    return false;
+                }
+                evictions.increment();
+                notifyRemoval(eldest.getValue().feature, Removal.EVICTED);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result for the location, an unnamed feature if it is known to hold none, or
+     * {@code null} if it has to be asked for.
+     */
+    public synchronized Feature get(int latitude, int longitude) {
+        Long key = PointIndex.pack(latitude, longitude);
+        CachedFeature entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            entries.remove(key);
+            expirations.increment();
+            misses.increment();
+            notifyRemoval(entry.feature, Removal.EXPIRED);
+            return null;
+        }
+        if (RouteGuideUtil.exists(entry.feature)) {
+            hits.increment();
+        } else {
+            negativeHits.increment();
+        }
+        return entry.feature;
+    }
+
+    /** Caches {@code feature} as the result for the location it was requested at. */
+    public synchronized void put(int latitude, int longitude, Feature feature) {
+        long ttl = RouteGuideUtil.exists(feature) ? ttlNanos : negativeTtlNanos;
+        if (ttl == 0) {
+            return;
+        }
+        entries.put(PointIndex.pack(latitude, longitude), new CachedFeature(feature, System.nanoTime() + ttl));
+    }
+
+    /** Forgets the result for {@code location}. */
+    public synchronized void invalidate(Point location) {
+        CachedFeature entry = entries.remove(PointIndex.pack(location.getLatitude(), location.getLongitude()));
+        if (entry != null) {
+            notifyRemoval(entry.feature, Removal.INVALIDATED);
+        }
+    }
+
+    /** Forgets every result inside {@code region}, for instance after features there changed. */
+    public synchronized void invalidate(Rectangle region) {
+        int minLat = Math.min(region.getLo().getLatitude(), region.getHi().getLatitude());
+        int maxLat = Math.max(region.getLo().getLatitude(), region.getHi().getLatitude());
+        int minLon = Math.min(region.getLo().getLongitude(), region.getHi().getLongitude());
+        int maxLon = Math.max(region.getLo().getLongitude(), region.getHi().getLongitude());
+        Iterator<Map.Entry<Long, CachedFeature>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, CachedFeature> entry = it.next();
+            long key = entry.getKey();
+            int lat = (int) (key >> 32);
+            int lon = (int) key;
+            if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                it.remove();
+                notifyRemoval(entry.getValue().feature, Removal.INVALIDATED);
+            }
+        }
+    }
+
+    /** Forgets every result, for instance after the server reloaded its features. */
+    public synchronized void invalidateAll() {
+        List<CachedFeature> removed = new ArrayList<>(entries.values());
+        entries.clear();
+        for (CachedFeature entry : removed) {
+            notifyRemoval(entry.feature, Removal.INVALIDATED);
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Lookups answered with a feature. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Lookups answered with a cached "no feature" result. */
+    public long negativeHits() {
+        return negativeHits.sum();
+    }
+
+    /** Lookups that had to be asked for, expired entries included. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public long expirations() {
+        return expirations.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "FeatureCache{size=" + size() + ", hits=" + hits() + ", negativeHits=" + negativeHits()
+                + ", misses=" + misses() + ", evictions=" + evictions() + ", expirations=" + expirations() + "}";
+    }
+
+    private void notifyRemoval(Feature feature, Removal cause) {
+        for (Listener listener : listeners) {
+            listener.onRemoval(feature, cause);
+        }
+    }
+
+    private static final class CachedFeature {
+        final Feature feature;
+        final long expiresAt;
+
+        CachedFeature(Feature feature, long expiresAt) {
+            this.feature = feature;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
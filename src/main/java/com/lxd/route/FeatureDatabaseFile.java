@@ -0,0 +1,194 @@
+package com.lxd.route;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Compact binary feature database that is memory-mapped instead of parsed.
+ *
+ * <p>All values are big-endian ints. The file starts with a header of five ints: magic
+ * ({@code "RGDB"}), version, feature count {@code n}, flags and the length {@code L} of the name
+ * arena. It is followed by the latitude column ({@code n} ints), the longitude column ({@code n}
+ * ints), the name offsets ({@code n + 1} ints) and the UTF-8 name arena ({@code L} bytes, padded
+ * to a multiple of four). Features are sorted by latitude then longitude. If
+ * {@link #FLAG_SPATIAL_INDEX} is set, a prebuilt {@link StrTree} follows the arena.</p>
+ */
+public final class FeatureDatabaseFile {
+    private static final int MAGIC = 0x52474442;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 5;
+    private static final int FLAG_SPATIAL_INDEX = 1;
+    /** Longest name arena, so its padded length still fits in an int. */
+    private static final int MAX_NAMES_LENGTH = Integer.MAX_VALUE - 3;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private FeatureDatabaseFile() {
+    }
+
+    /**
+     * Writes {@code features} to {@code file}, sorted by location. Prebuilds an R-tree into the file if
+     * {@code spatialIndex} is set.
+     */
+    public static void write(FeatureStore features, Path file, boolean spatialIndex) throws IOException {
+        FeatureStore sorted = sortByLocation(features);
+        int n = sorted.size();
+        byte[][] names = new byte[n][];
+        long totalNamesLength = 0;
+        for (int i = 0; i < n; i++) {
+            names[i] = sorted.name(i).getBytes(UTF_8);
+            totalNamesLength += names[i].length;
+        }
+        // The header and the name offsets hold the arena length in ints, padding included.
+        if (totalNamesLength > MAX_NAMES_LENGTH) {
+            throw new IOException("Feature names take " + totalNamesLength + " bytes, the format allows at most "
+                    + MAX_NAMES_LENGTH);
+        }
+        int namesLength = (int) totalNamesLength;
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(spatialIndex ? FLAG_SPATIAL_INDEX : 0);
+            out.writeInt(namesLength);
+            for (int i = 0; i < n; i++) {
+                out.writeInt(sorted.latitude(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeInt(sorted.longitude(i));
+            }
+            int offset = 0;
+            out.writeInt(offset);
+            for (int i = 0; i < n; i++) {
+                offset += names[i].length;
+                out.writeInt(offset);
+            }
+            for (int i = 0; i < n; i++) {
+                out.write(names[i]);
+            }
+            for (int i = namesLength; i % 4 != 0; i++) {
+                out.writeByte(0);
+            }
+            if (spatialIndex) {
+                ((StrTree) SpatialIndex.Kind.RTREE.build(sorted)).writeTo(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Maps {@code file} into memory. Nothing is parsed or copied except a prebuilt spatial index, if
+     * present and an R-tree is the configured kind; otherwise the configured index is built.
+     */
+    static IndexedFeatureStore map(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (channel.size() < HEADER_INTS * 4) {
+                throw new IOException(file + " is not a feature database file");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_INTS * 4);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a feature database file");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported feature database version " + header.getInt(4) + " in " + file);
+            }
+            int n = header.getInt(8);
+            int flags = header.getInt(12);
+            int namesLength = header.getInt(16);
+
+            long position = HEADER_INTS * 4;
+            IntBuffer latitudes = mapInts(channel, position, n);
+            position += 4L * n;
+            IntBuffer longitudes = mapInts(channel, position, n);
+            position += 4L * n;
+            IntBuffer nameOffsets = mapInts(channel, position, n + 1);
+            position += 4L * (n + 1);
+            MappedByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY, position, namesLength);
+            position += (namesLength + 3) & ~3;
+
+            FeatureStore features = new ColumnarFeatureStore(n, latitudes, longitudes, nameOffsets, names);
+            SpatialIndex.Kind kind = SpatialIndex.Kind.fromSystemProperty();
+            SpatialIndex spatialIndex = (flags & FLAG_SPATIAL_INDEX) != 0 && kind == SpatialIndex.Kind.RTREE
+                    ? StrTree.read(channel.map(FileChannel.MapMode.READ_ONLY, position, channel.size() - position)
+                            .asIntBuffer())
+                    : kind.build(features);
+            return new IndexedFeatureStore(features, IndexedFeatureStore.buildPointIndex(features, true),
+                    spatialIndex);
+        } finally {
+            // Mappings stay valid after the channel is closed.
+            channel.close();
+        }
+    }
+
+    private static IntBuffer mapInts(FileChannel channel, long position, int count) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * count).asIntBuffer();
+    }
+
+    /** Copies {@code features} into a new store ordered by latitude, then longitude, then position. */
+    static FeatureStore sortByLocation(FeatureStore features) {
+        int n = features.size();
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = ((long) features.latitude(i) << 32) | i;
+        }
+        Arrays.sort(keys);
+        // Break latitude ties by longitude.
+        for (int from = 0; from < n; ) {
+            int latitude = (int) (keys[from] >> 32);
+            int to = from + 1;
+            while (to < n && (int) (keys[to] >> 32) == latitude) {
+                to++;
+            }
+            if (to - from > 1) {
+                for (int i = from; i < to; i++) {
+                    int index = (int) keys[i];
+                    keys[i] = ((long) features.longitude(index) << 32) | index;
+                }
+                Arrays.sort(keys, from, to);
+            }
+            from = to;
+        }
+
+        ColumnarFeatureStore.Builder builder = new ColumnarFeatureStore.Builder(n);
+        for (int i = 0; i < n; i++) {
+            int index = (int) keys[i];
+            builder.add(features.latitude(index), features.longitude(index), features.name(index));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Converts a JSON feature database into the binary format.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: FeatureDatabaseFile input.json output [--no-index]");
+            System.err.println("");
+            System.err.println("  input.json  JSON feature database, see route_guide_db.json");
+            System.err.println("  output      Binary feature database to write");
+            System.err.println("  --no-index  Do not prebuild the spatial index");
+            System.exit(1);
+        }
+        boolean spatialIndex = !(args.length > 2 && "--no-index".equals(args[2]));
+        long start = System.nanoTime();
+        ColumnarFeatureStore.Builder builder = new ColumnarFeatureStore.Builder();
+        new StreamingFeatureLoader().load(Paths.get(args[0]).toUri().toURL(), builder);
+        FeatureStore features = builder.build();
+        write(features, Paths.get(args[1]), spatialIndex);
+        System.out.println("Wrote " + features.size() + " features to " + args[1] + " in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,220 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Feature;
+import com.lxd.grpcl.Point;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server side of one {@code StreamFeatures} call.
+ *
+ * <p>Received points are grouped into micro-batches of up to {@code routeguide.streamBatchSize}
+ * (default 64) points; a batch that does not fill up is dispatched anyway once its first point has
+ * waited {@code routeguide.streamBatchDelayMicros} (default 500). Batches are resolved against the
+ * index on the resolver executor, several at a time. In the default ordered mode their features are
+ * sent in request order; with the {@code routeguide-order: unordered} request header each batch is
+ * sent as soon as it is resolved, and clients match features to points by location.</p>
+ *
+ * <p>The call uses manual flow control both ways: features are only sent while the client reads
+ * them, and new points are only requested while fewer than four batches of points are received but
+ * not yet answered, so a client that stops reading eventually stops being able to send.</p>
+ *
+ * <p>All state is guarded by the monitor of this object, since the gRPC callbacks, the flush timer
+ * and the resolver run on different threads.</p>
+ */
+final class FeatureLookupStream implements StreamObserver<Point>, Runnable {
+    private static final int BATCH_SIZE = Integer.getInteger("routeguide.streamBatchSize", 64);
+    private static final long BATCH_DELAY_NANOS =
+            TimeUnit.MICROSECONDS.toNanos(Long.getLong("routeguide.streamBatchDelayMicros", 500));
+    private static final int MAX_OUTSTANDING = 4 * BATCH_SIZE;
+
+    private final ServerCallStreamObserver<Feature> call;
+    private final IndexedFeatureStore features;
+    private final boolean ordered;
+    private final ScheduledExecutorService flushScheduler;
+    private final Executor resolver;
+
+    private List<Point> pending = new ArrayList<>(BATCH_SIZE);
+    private ScheduledFuture<?> flushTimer;
+    private int nextBatch;
+    /** Ordered mode: next batch to send, and the batches resolved before it. */
+    private int nextToSend;
+    private final Map<Integer, List<Feature>> resolvedEarly = new HashMap<>();
+    private final ArrayDeque<Feature> outbox = new ArrayDeque<>();
+    /** Points received and not answered yet. */
+    private int outstanding;
+    /** Points requested from the client and not received yet. */
+    private int requested;
+    private boolean halfClosed;
+    private boolean completed;
+
+    private FeatureLookupStream(ServerCallStreamObserver<Feature> call, IndexedFeatureStore features, boolean ordered,
+                                ScheduledExecutorService flushScheduler, Executor resolver) {
+        this.call = call;
+        this.features = features;
+        this.ordered = ordered;
+        this.flushScheduler = flushScheduler;
+        this.resolver = resolver;
+    }
+
+    /**
+     * Starts serving a call, returning the observer of its points. Must be called from the service
+     * method handling the call.
+     */
+    static StreamObserver<Point> start(StreamObserver<Feature> responseObserver, IndexedFeatureStore features,
+                                       ScheduledExecutorService flushScheduler, Executor resolver) {
+        ServerCallStreamObserver<Feature> call = (ServerCallStreamObserver<Feature>) responseObserver;
+        boolean ordered = !"unordered".equals(RequestHeaders.current().get(RouteGuideUtil.ORDER_HEADER));
+        final FeatureLookupStream stream = new FeatureLookupStream(call, features, ordered, flushScheduler, resolver);
+        call.disableAutoInboundFlowControl();
+        call.setOnReadyHandler(stream);
+        // onError is not called for a client cancelling after it half-closed.
+        call.setOnCancelHandler(new Runnable() {
+            @Override
+            public void run() {
+                stream.cancelled();
+            }
+        });
+        synchronized (stream) {
+            stream.requestMore();
+        }
+        return stream;
+    }
+
+    @Override
+    public synchronized void onNext(Point point) {
+        if (completed) {
+            return;
+        }
+        requested--;
+        outstanding++;
+        pending.add(point);
+        if (pending.size() >= BATCH_SIZE) {
+            dispatch();
+        } else if (pending.size() == 1) {
+            flushTimer = flushScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, BATCH_DELAY_NANOS, TimeUnit.NANOSECONDS);
+        }
+        requestMore();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        cancelled();
+    }
+
+    /** Drops everything once the client cancelled, so nothing waits for an on-ready that never comes. */
+    private synchronized void cancelled() {
+        completed = true;
+        cancelFlushTimer();
+        pending.clear();
+        outbox.clear();
+        resolvedEarly.clear();
+    }
+
+    @Override
+    public synchronized void onCompleted() {
+        halfClosed = true;
+        if (!pending.isEmpty()) {
+            dispatch();
+        }
+        drain();
+    }
+
+    /** On-ready handler. */
+    @Override
+    public synchronized void run() {
+        drain();
+    }
+
+    private synchronized void flush() {
+        if (!completed && !pending.isEmpty()) {
+            dispatch();
+        }
+    }
+
+    /** Hands the pending points to the resolver as the next batch. */
+    private void dispatch() {
+        cancelFlushTimer();
+        final List<Point> batch = pending;
+        final int number = nextBatch++;
+        pending = new ArrayList<>(BATCH_SIZE);
+        resolver.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Feature> resolved = new ArrayList<>(batch.size());
+                for (Point point : batch) {
+                    resolved.add(features.checkFeature(point));
+                }
+                resolved(number, resolved);
+            }
+        });
+    }
+
+    private synchronized void resolved(int number, List<Feature> batch) {
+        if (completed) {
+            return;
+        }
+        if (!ordered) {
+            outbox.addAll(batch);
+        } else if (number != nextToSend) {
+            resolvedEarly.put(number, batch);
+        } else {
+            outbox.addAll(batch);
+            nextToSend++;
+            List<Feature> next;
+            while ((next = resolvedEarly.remove(nextToSend)) != null) {
+                outbox.addAll(next);
+                nextToSend++;
+            }
+        }
+        drain();
+    }
+
+    /** Sends what the client is ready for, then completes the call or asks for more points. */
+    private void drain() {
+        if (completed) {
+            return;
+        }
+        while (!outbox.isEmpty() && call.isReady()) {
+            call.onNext(outbox.poll());
+            outstanding--;
+        }
+        if (halfClosed && outstanding == 0) {
+            completed = true;
+            call.onCompleted();
+            return;
+        }
+        requestMore();
+    }
+
+    private void requestMore() {
+        int more = MAX_OUTSTANDING - outstanding - requested;
+        // Ask in whole batches rather than point by point.
+        if (!halfClosed && !completed && more >= BATCH_SIZE) {
+            requested += more;
+            call.request(more);
+        }
+    }
+
+    private void cancelFlushTimer() {
+        if (flushTimer != null) {
+            flushTimer.cancel(false);
+            flushTimer = null;
+        }
+    }
+}
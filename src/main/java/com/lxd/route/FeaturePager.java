@@ -0,0 +1,116 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.FeaturePage;
+import com.lxd.grpcl.ListFeaturesRequest;
+import com.lxd.grpcl.Rectangle;
+import io.grpc.Status;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Answers {@code ListFeaturesPage} calls: the features inside a rectangle, in pages of up to
+ * {@code page_size}, in the order the {@link SpatialIndex} numbers its entries.
+ *
+ * <p>That order is stable for as long as the same snapshot is served, so a page token only records
+ * the number of the entry following the last one sent, together with the snapshot
+ * {@link IndexedFeatureStore#generation} and a hash of the rectangle to catch it being used with
+ * another one. The index seeks straight to that entry and stops once the page is full, so a page
+ * costs its own size plus the seek rather than a search of the whole rectangle; features are
+ * materialized for that page alone.</p>
+ */
+final class FeaturePager {
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    private static final int TOKEN_BYTES = 16;
+
+    private FeaturePager() {
+    }
+
+    /**
+     * Returns the requested page.
+     *
+     * @throws io.grpc.StatusRuntimeException {@code INVALID_ARGUMENT} for a negative page size or a
+     *     malformed token, {@code ABORTED} if the features were reloaded since the token was issued
+     */
+    static FeaturePage page(IndexedFeatureStore indexed, ListFeaturesRequest request) {
+        if (request.getPageSize() < 0) {
+            throw Status.INVALID_ARGUMENT.withDescription("page_size must not be negative").asRuntimeException();
+        }
+        int pageSize = request.getPageSize() == 0 ? DEFAULT_PAGE_SIZE : Math.min(request.getPageSize(), MAX_PAGE_SIZE);
+        Rectangle rectangle = request.getRectangle();
+        int left = Math.min(rectangle.getLo().getLongitude(), rectangle.getHi().getLongitude());
+        int right = Math.max(rectangle.getLo().getLongitude(), rectangle.getHi().getLongitude());
+        int top = Math.max(rectangle.getLo().getLatitude(), rectangle.getHi().getLatitude());
+        int bottom = Math.min(rectangle.getLo().getLatitude(), rectangle.getHi().getLatitude());
+        int rectangleHash = Arrays.hashCode(new int[] {bottom, left, top, right});
+
+        int from = 0;
+        if (!request.getPageToken().isEmpty()) {
+            ByteBuffer token = decode(request.getPageToken());
+            long generation = token.getLong();
+            from = token.getInt();
+            if (token.getInt() != rectangleHash || from <= 0) {
+                throw Status.INVALID_ARGUMENT.withDescription("page_token was issued for another rectangle")
+                        .asRuntimeException();
+            }
+            if (generation != indexed.generation) {
+                throw Status.ABORTED.withDescription("features were reloaded since page_token was issued")
+                        .asRuntimeException();
+            }
+        }
+
+        // One more than a page tells whether another page follows.
+        Collector next = new Collector(pageSize + 1);
+        indexed.spatialIndex.search(bottom, left, top, right, from, next);
+
+        FeaturePage.Builder page = FeaturePage.newBuilder();
+        int count = Math.min(next.size, pageSize);
+        for (int i = 0; i < count; i++) {
+            page.addFeature(indexed.features.feature(next.positions[i]));
+        }
+        if (next.size > pageSize) {
+            page.setNextPageToken(encode(indexed.generation, next.entries[count - 1] + 1, rectangleHash));
+        }
+        return page.build();
+    }
+
+    private static String encode(long generation, int from, int rectangleHash) {
+        ByteBuffer token = ByteBuffer.allocate(TOKEN_BYTES);
+        token.putLong(generation).putInt(from).putInt(rectangleHash);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+    }
+
+    private static ByteBuffer decode(String token) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            bytes = null;
+        }
+        if (bytes == null || bytes.length != TOKEN_BYTES) {
+            throw Status.INVALID_ARGUMENT.withDescription("malformed page_token").asRuntimeException();
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /** Keeps the first {@code limit} entries found, then stops the search. */
+    private static final class Collector implements SpatialIndex.EntryVisitor {
+        final int[] entries;
+        final int[] positions;
+        int size;
+
+        Collector(int limit) {
+            entries = new int[limit];
+            positions = new int[limit];
+        }
+
+        @Override
+        public boolean visit(int entry, int position) {
+            entries[size] = entry;
+            positions[size++] = position;
+            return size < positions.length;
+        }
+    }
+}
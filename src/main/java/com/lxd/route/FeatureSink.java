@@ -0,0 +1,11 @@
+package com.lxd.route;
+
+/**
+ * Receives features one at a time as they are loaded, without a {@code Feature} message being
+ * built for each of them.
+ */
+public interface FeatureSink {
+
+    /** Accepts the feature called {@code name} (empty if unnamed) at the given location. */
+    void accept(int latitude, int longitude, String name);
+}
@@ -0,0 +1,31 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Feature;
+
+/**
+ * Read-only feature database addressed by position, {@code 0} to {@code size() - 1}.
+ *
+ * <p>Implementations keep coordinates and names in compact columns and only build {@link Feature}
+ * messages when {@link #feature(int)} is called, so callers should prefer the column accessors on
+ * hot paths.</p>
+ */
+public interface FeatureStore {
+
+    /** Number of features in the store. */
+    int size();
+
+    /** Latitude of the feature at {@code index}. */
+    int latitude(int index);
+
+    /** Longitude of the feature at {@code index}. */
+    int longitude(int index);
+
+    /** Whether the feature at {@code index} has a name, see {@link RouteGuideUtil#exists(Feature)}. */
+    boolean exists(int index);
+
+    /** Name of the feature at {@code index}, empty if it has none. */
+    String name(int index);
+
+    /** Materializes the feature at {@code index} as a message. */
+    Feature feature(int index);
+}
@@ -0,0 +1,59 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Feature;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Streams a list of features to a server call only as fast as the client consumes them.
+ *
+ * <p>Features are materialized from the store one at a time while the call {@link
+ * ServerCallStreamObserver#isReady() is ready}; otherwise the streamer stops and resumes from the
+ * same position when gRPC runs its on-ready handler. Memory therefore stays bounded by the list of
+ * positions instead of growing with buffered messages.</p>
+ */
+final class FeatureStreamer implements Runnable {
+    private final ServerCallStreamObserver<Feature> call;
+    private final FeatureStore features;
+    private final IntList positions;
+    private int next;
+    private boolean completed;
+
+    private FeatureStreamer(ServerCallStreamObserver<Feature> call, FeatureStore features, IntList positions) {
+        this.call = call;
+        this.features = features;
+        this.positions = positions;
+    }
+
+    /**
+     * Streams the features at {@code positions} of {@code features}, then completes the call. Must be
+     * called from the service method handling the call.
+     */
+    static void start(StreamObserver<Feature> responseObserver, FeatureStore features, IntList positions) {
+        ServerCallStreamObserver<Feature> call = (ServerCallStreamObserver<Feature>) responseObserver;
+        final FeatureStreamer streamer = new FeatureStreamer(call, features, positions);
+        // gRPC runs the handler once the method returns if the call is already ready, then on every
+        // transition back to ready.
+        call.setOnReadyHandler(streamer);
+        call.setOnCancelHandler(new Runnable() {
+            @Override
+            public void run() {
+                streamer.completed = true;
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        if (completed) {
+            return;
+        }
+        while (next < positions.size() && call.isReady()) {
+            call.onNext(features.feature(positions.get(next++)));
+        }
+        if (next == positions.size()) {
+            completed = true;
+            call.onCompleted();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.lxd.route;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Uniform grid over the bounding box of the indexed features.
+ *
+ * <p>Entries are stored bucketed by cell in compressed sparse row form: the entries of cell
+ * {@code c} are {@code [cellStart[c], cellStart[c + 1])}. Cells entirely inside the query are
+ * reported without testing each entry, and counted from their bounds alone.</p>
+ */
+final class GridIndex implements SpatialIndex {
+    /** Target average number of entries per cell. */
+    private static final int ENTRIES_PER_CELL = 8;
+
+    private final int minLat;
+    private final int minLon;
+    private final long latSpan;
+    private final long lonSpan;
+    private final int rows;
+    private final int columns;
+    private final int[] cellStart;
+    private final int[] entryLat;
+    private final int[] entryLon;
+    private final int[] entryId;
+
+    private GridIndex(int minLat, int minLon, long latSpan, long lonSpan, int rows, int columns, int[] cellStart,
+                      int[] entryLat, int[] entryLon, int[] entryId) {
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.latSpan = latSpan;
+        this.lonSpan = lonSpan;
+        this.rows = rows;
+        this.columns = columns;
+        this.cellStart = cellStart;
+        this.entryLat = entryLat;
+        this.entryLon = entryLon;
+        this.entryId = entryId;
+    }
+
+    static GridIndex build(int[] lat, int[] lon, int[] id) {
+        int n = id.length;
+        int loLat = Integer.MAX_VALUE;
+        int loLon = Integer.MAX_VALUE;
+        int hiLat = Integer.MIN_VALUE;
+        int hiLon = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            loLat = Math.min(loLat, lat[i]);
+            loLon = Math.min(loLon, lon[i]);
+            hiLat = Math.max(hiLat, lat[i]);
+            hiLon = Math.max(hiLon, lon[i]);
+        }
+        if (n == 0) {
+            loLat = loLon = hiLat = hiLon = 0;
+        }
+        long latSpan = (long) hiLat - loLat + 1;
+        long lonSpan = (long) hiLon - loLon + 1;
+
+        // Aim for square-ish cells in coordinate space with ENTRIES_PER_CELL entries on average.
+        long cells = Math.max(1, n / ENTRIES_PER_CELL);
+        double aspect = (double) latSpan / lonSpan;
+        // Capped by cells too, so a degenerate longitude span cannot blow up the row count.
+        int rows = (int) Math.max(1, Math.min(Math.min(latSpan, cells), Math.round(Math.sqrt(cells * aspect))));
+        int columns = (int) Math.max(1, Math.min(lonSpan, cells / rows));
+
+        GridIndex grid = new GridIndex(loLat, loLon, latSpan, lonSpan, rows, columns, new int[rows * columns + 1],
+                new int[n], new int[n], new int[n]);
+        int[] cellStart = grid.cellStart;
+        int[] cellOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = grid.row(lat[i]) * columns + grid.column(lon[i]);
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < rows * columns; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] next = cellStart.clone();
+        for (int i = 0; i < n; i++) {
+            int slot = next[cellOf[i]]++;
+            grid.entryLat[slot] = lat[i];
+            grid.entryLon[slot] = lon[i];
+            grid.entryId[slot] = id[i];
+        }
+        return grid;
+    }
+
+    @Override
+    public void search(int minLat, int minLon, int maxLat, int maxLon, IntConsumer visitor) {
+        if (entryId.length == 0 || maxLat < this.minLat || maxLon < this.minLon
+                || minLat - (long) this.minLat >= latSpan || minLon - (long) this.minLon >= lonSpan) {
+            return;
+        }
+        int firstRow = row(Math.max(minLat, this.minLat));
+        int lastRow = row((int) Math.min(maxLat, this.minLat + latSpan - 1));
+        int firstColumn = column(Math.max(minLon, this.minLon));
+        int lastColumn = column((int) Math.min(maxLon, this.minLon + lonSpan - 1));
+        for (int r = firstRow; r <= lastRow; r++) {
+            boolean rowInside = rowLow(r) >= minLat && rowLow(r + 1) - 1 <= maxLat;
+            for (int c = firstColumn; c <= lastColumn; c++) {
+                int cell = r * columns + c;
+                boolean inside = rowInside && columnLow(c) >= minLon && columnLow(c + 1) - 1 <= maxLon;
+                for (int i = cellStart[cell], end = cellStart[cell + 1]; i < end; i++) {
+                    if (inside) {
+                        visitor.accept(entryId[i]);
+                        continue;
+                    }
+                    int lat = entryLat[i];
+                    int lon = entryLon[i];
+                    if (lon >= minLon && lon <= maxLon && lat >= minLat && lat <= maxLat) {
+                        visitor.accept(entryId[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Entries are numbered by their slot, so resuming starts at the cell holding {@code from}. */
+    @Override
+    public void search(int minLat, int minLon, int maxLat, int maxLon, int from, EntryVisitor visitor) {
+        if (entryId.length == 0 || from >= entryId.length || maxLat < this.minLat || maxLon < this.minLon
+                || minLat - (long) this.minLat >= latSpan || minLon - (long) this.minLon >= lonSpan) {
+            return;
+        }
+        from = Math.max(from, 0);
+        int firstRow = row(Math.max(minLat, this.minLat));
+        int lastRow = row((int) Math.min(maxLat, this.minLat + latSpan - 1));
+        int firstColumn = column(Math.max(minLon, this.minLon));
+        int lastColumn = column((int) Math.min(maxLon, this.minLon + lonSpan - 1));
+        int fromCell = cellOf(from);
+        int fromRow = fromCell / columns;
+        for (int r = Math.max(firstRow, fromRow); r <= lastRow; r++) {
+            boolean rowInside = rowLow(r) >= minLat && rowLow(r + 1) - 1 <= maxLat;
+            int startColumn = r == fromRow ? Math.max(firstColumn, fromCell % columns) : firstColumn;
+            for (int c = startColumn; c <= lastColumn; c++) {
+                int cell = r * columns + c;
+                boolean inside = rowInside && columnLow(c) >= minLon && columnLow(c + 1) - 1 <= maxLon;
+                for (int i = Math.max(from, cellStart[cell]), end = cellStart[cell + 1]; i < end; i++) {
+                    if (!inside) {
+                        int lat = entryLat[i];
+                        int lon = entryLon[i];
+                        if (lon < minLon || lon > maxLon || lat < minLat || lat > maxLat) {
+                            continue;
+                        }
+                    }
+                    if (!visitor.visit(i, entryId[i])) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int count(int minLat, int minLon, int maxLat, int maxLon) {
+        if (entryId.length == 0 || maxLat < this.minLat || maxLon < this.minLon
+                || minLat - (long) this.minLat >= latSpan || minLon - (long) this.minLon >= lonSpan) {
+            return 0;
+        }
+        int firstRow = row(Math.max(minLat, this.minLat));
+        int lastRow = row((int) Math.min(maxLat, this.minLat + latSpan - 1));
+        int firstColumn = column(Math.max(minLon, this.minLon));
+        int lastColumn = column((int) Math.min(maxLon, this.minLon + lonSpan - 1));
+        int count = 0;
+        for (int r = firstRow; r <= lastRow; r++) {
+            boolean rowInside = rowLow(r) >= minLat && rowLow(r + 1) - 1 <= maxLat;
+            int c = firstColumn;
+            while (c <= lastColumn) {
+                if (rowInside && columnLow(c) >= minLon && columnLow(c + 1) - 1 <= maxLon) {
+                    // A run of cells inside the query is contiguous in cellStart.
+                    int last = c;
+                    while (last < lastColumn && columnLow(last + 2) - 1 <= maxLon) {
+                        last++;
+                    }
+                    count += cellStart[r * columns + last + 1] - cellStart[r * columns + c];
+                    c = last + 1;
+                    continue;
+                }
+                int cell = r * columns + c;
+                for (int i = cellStart[cell], end = cellStart[cell + 1]; i < end; i++) {
+                    int lat = entryLat[i];
+                    int lon = entryLon[i];
+                    if (lon >= minLon && lon <= maxLon && lat >= minLat && lat <= maxLat) {
+                        count++;
+                    }
+                }
+                c++;
+            }
+        }
+        return count;
+    }
+
+    /** Cell holding the entry in {@code slot}: the last one starting at or before it. */
+    private int cellOf(int slot) {
+        int low = 0;
+        int high = rows * columns - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (cellStart[mid] <= slot) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private int row(int lat) {
+        return (int) ((lat - (long) minLat) * rows / latSpan);
+    }
+
+    private int column(int lon) {
+        return (int) ((lon - (long) minLon) * columns / lonSpan);
+    }
+
+    /** Lowest latitude falling into row {@code r}. */
+    private long rowLow(int r) {
+        return minLat + (r * latSpan + rows - 1) / rows;
+    }
+
+    /** Lowest longitude falling into column {@code c}. */
+    private long columnLow(int c) {
+        return minLon + (c * lonSpan + columns - 1) / columns;
+    }
+}
@@ -0,0 +1,86 @@
+package com.lxd.route;
+
+import java.util.Arrays;
+
+/**
+ * {@link PointIndex} backed by a hash table from the packed latitude/longitude pair to the
+ * position of the feature at that location.
+ *
+ * <p>Keys are stored as primitive {@code long}s in an open-addressing table with linear probing,
+ * so a lookup neither boxes nor allocates. When several features share a location the first one
+ * wins, which matches the behaviour of a linear scan.</p>
+ */
+final class HashPointIndex implements PointIndex {
+    private static final int EMPTY = -1;
+    /** Largest power of two an array can hold. */
+    private static final int MAX_TABLE_SIZE = 1 << 30;
+
+    private final long[] keys;
+    private final int[] values;
+    private final int mask;
+
+    private HashPointIndex(long[] keys, int[] values) {
+        this.keys = keys;
+        this.values = values;
+        this.mask = keys.length - 1;
+    }
+
+    /** Builds an index over {@code features}, mapping each location to its position in the store. */
+    static HashPointIndex build(FeatureStore features) {
+        int capacity = tableSize(features.size());
+        long[] keys = new long[capacity];
+        int[] values = new int[capacity];
+        Arrays.fill(values, EMPTY);
+        int mask = capacity - 1;
+        for (int i = 0; i < features.size(); i++) {
+            long key = PointIndex.pack(features.latitude(i), features.longitude(i));
+            int slot = mix(key) & mask;
+            while (values[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (values[slot] == EMPTY) {
+                keys[slot] = key;
+                values[slot] = i;
+            }
+        }
+        return new HashPointIndex(keys, values);
+    }
+
+    @Override
+    public int find(int latitude, int longitude) {
+        long key = PointIndex.pack(latitude, longitude);
+        int slot = mix(key) & mask;
+        int value;
+        while ((value = values[slot]) != EMPTY) {
+            if (keys[slot] == key) {
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Smallest power of two that keeps the load factor at or below one half.
+     *
+     * @throws IllegalArgumentException if that exceeds the largest power of two an array can hold
+     */
+    private static int tableSize(int size) {
+        long capacity = Long.highestOneBit(Math.max(size, 1) * 2L - 1) << 1;
+        if (capacity > MAX_TABLE_SIZE) {
+            throw new IllegalArgumentException(size + " features are too many for a hash index, at most "
+                    + MAX_TABLE_SIZE / 2 + " fit");
+        }
+        return (int) Math.max(capacity, 2);
+    }
+
+    /** Finalizer of MurmurHash3, spreads packed coordinates that differ only in low bits. */
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
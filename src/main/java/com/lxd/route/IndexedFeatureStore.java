@@ -0,0 +1,100 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Feature;
+import com.lxd.grpcl.Point;
+
+import java.security.SecureRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link FeatureStore} together with the indexes the service queries it through.
+ */
+final class IndexedFeatureStore {
+    /**
+     * Set the {@code routeguide.linearScan} system property to look features up by scanning the whole
+     * store instead of using a {@link PointIndex}. Only useful to compare the two.
+     */
+    private static final boolean LINEAR_SCAN = Boolean.getBoolean("routeguide.linearScan");
+    /** Starts at a random value so generations of different server runs are unlikely to match. */
+    private static final AtomicLong GENERATIONS = new AtomicLong(new SecureRandom().nextLong());
+
+    final FeatureStore features;
+    final PointIndex pointIndex;
+    final SpatialIndex spatialIndex;
+    /**
+     * Identifies this snapshot of the features. Positions only mean the same feature within one
+     * generation, so anything remembering positions across calls, like a page token, records it.
+     */
+    final long generation = GENERATIONS.incrementAndGet();
+    /** Built on first use, so memory-mapped databases still open without reading every location. */
+    private volatile KdTree nearestIndex;
+
+    IndexedFeatureStore(FeatureStore features, PointIndex pointIndex, SpatialIndex spatialIndex) {
+        this.features = features;
+        this.pointIndex = pointIndex;
+        this.spatialIndex = spatialIndex;
+    }
+
+    /** The feature at {@code location}, or an unnamed feature there if it holds none. */
+    Feature checkFeature(Point location) {
+        int index = pointIndex.find(location.getLatitude(), location.getLongitude());
+        if (index >= 0) {
+            return features.feature(index);
+        }
+
+        // No feature was found, return an unnamed feature.
+        return Feature.newBuilder().setName("").setLocation(location).build();
+    }
+
+    /** Index of the named features for nearest neighbour queries. */
+    KdTree nearestIndex() {
+        KdTree index = nearestIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = nearestIndex;
+                if (index == null) {
+                    index = KdTree.build(features);
+                    nearestIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Builds the indexes configured through system properties over {@code features}. The spatial and
+     * nearest neighbour indexes are built on the current fork-join pool (or the common pool) while
+     * this thread builds the point index.
+     */
+    static IndexedFeatureStore build(final FeatureStore features) {
+        ForkJoinTask<SpatialIndex> spatialIndex = ForkJoinTask.adapt(new Callable<SpatialIndex>() {
+            @Override
+            public SpatialIndex call() {
+                return SpatialIndex.Kind.fromSystemProperty().build(features);
+            }
+        }).fork();
+        ForkJoinTask<KdTree> nearestIndex = ForkJoinTask.adapt(new Callable<KdTree>() {
+            @Override
+            public KdTree call() {
+                return KdTree.build(features);
+            }
+        }).fork();
+        PointIndex pointIndex = buildPointIndex(features, false);
+        IndexedFeatureStore indexed = new IndexedFeatureStore(features, pointIndex, spatialIndex.join());
+        indexed.nearestIndex = nearestIndex.join();
+        return indexed;
+    }
+
+    /**
+     * Builds a point index over {@code features}. A store {@code sorted} by location does not need
+     * one, lookups binary search it instead.
+     */
+    static PointIndex buildPointIndex(FeatureStore features, boolean sorted) {
+        if (LINEAR_SCAN) {
+            return PointIndex.scan(features);
+        }
+        return sorted ? new SortedPointIndex(features) : HashPointIndex.build(features);
+    }
+}
@@ -0,0 +1,37 @@
+package com.lxd.route;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Growable list of primitive ints, used to collect feature positions without boxing. Being an
+ * {@link IntConsumer}, it can be handed to {@link SpatialIndex#search} directly.
+ */
+final class IntList implements IntConsumer {
+    private int[] values;
+    private int size;
+
+    IntList() {
+        this(16);
+    }
+
+    IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    @Override
+    public void accept(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    int get(int index) {
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,327 @@
+package com.lxd.route;
+
+/**
+ * Static 2-d tree over the locations of named features, answering k-nearest-neighbour queries by
+ * great-circle distance.
+ *
+ * <p>The tree is implicit: entries live in flat primitive arrays, and the entry in the middle of a
+ * range splits it on the {@link #axis} with the larger spread, its left half holding the smaller
+ * values. Ranges of up to {@link #LEAF_SIZE} entries are not split further and are scanned.</p>
+ *
+ * <p>Searches compare haversine terms ({@code a} in {@code d = 2R atan2(sqrt(a), sqrt(1 - a))})
+ * rather than distances, since both grow together. A subtree is skipped when a lower bound of the
+ * term over its bounding box, the latitude and longitude gaps to the query taken apart, already
+ * exceeds that of the k-th nearest entry found so far. Longitudes wrap at the antimeridian.</p>
+ */
+final class KdTree {
+    private static final int LEAF_SIZE = 8;
+    private static final byte SPLIT_LAT = 0;
+    private static final byte SPLIT_LON = 1;
+
+    private final int[] lat;
+    private final int[] lon;
+    private final int[] id;
+    private final double[] cosLat;
+    /** Splitting axis of the entry in the middle of each split range. */
+    private final byte[] axis;
+    /** Bounding box of every entry, which the search starts from. */
+    private final int minLat;
+    private final int maxLat;
+    private final int minLon;
+    private final int maxLon;
+
+    private KdTree(int[] lat, int[] lon, int[] id, double[] cosLat, byte[] axis) {
+        this.lat = lat;
+        this.lon = lon;
+        this.id = id;
+        this.cosLat = cosLat;
+        this.axis = axis;
+        int loLat = Integer.MAX_VALUE;
+        int hiLat = Integer.MIN_VALUE;
+        int loLon = Integer.MAX_VALUE;
+        int hiLon = Integer.MIN_VALUE;
+        for (int i = 0; i < id.length; i++) {
+            loLat = Math.min(loLat, lat[i]);
+            hiLat = Math.max(hiLat, lat[i]);
+            loLon = Math.min(loLon, lon[i]);
+            hiLon = Math.max(hiLon, lon[i]);
+        }
+        this.minLat = loLat;
+        this.maxLat = hiLat;
+        this.minLon = loLon;
+        this.maxLon = hiLon;
+    }
+
+    /** Builds a tree over the named features of {@code features}. */
+    static KdTree build(FeatureStore features) {
+        int n = 0;
+        for (int i = 0; i < features.size(); i++) {
+            if (features.exists(i)) {
+                n++;
+            }
+        }
+        int[] lat = new int[n];
+        int[] lon = new int[n];
+        int[] id = new int[n];
+        for (int i = 0, j = 0; i < features.size(); i++) {
+            if (features.exists(i)) {
+                lat[j] = features.latitude(i);
+                lon[j] = features.longitude(i);
+                id[j++] = i;
+            }
+        }
+        return build(lat, lon, id);
+    }
+
+    /** Builds a tree over the given entries, taking ownership of the arrays. */
+    static KdTree build(int[] lat, int[] lon, int[] id) {
+        byte[] axis = new byte[id.length];
+        split(lat, lon, id, axis, 0, id.length);
+        double[] cosLat = new double[id.length];
+        for (int i = 0; i < id.length; i++) {
+            cosLat[i] = Math.cos(GeoDistance.radians(lat[i]));
+        }
+        return new KdTree(lat, lon, id, cosLat, axis);
+    }
+
+    private static void split(int[] lat, int[] lon, int[] id, byte[] axis, int from, int to) {
+        while (to - from > LEAF_SIZE) {
+            int minLat = Integer.MAX_VALUE;
+            int maxLat = Integer.MIN_VALUE;
+            int minLon = Integer.MAX_VALUE;
+            int maxLon = Integer.MIN_VALUE;
+            for (int i = from; i < to; i++) {
+                minLat = Math.min(minLat, lat[i]);
+                maxLat = Math.max(maxLat, lat[i]);
+                minLon = Math.min(minLon, lon[i]);
+                maxLon = Math.max(maxLon, lon[i]);
+            }
+            boolean byLat = (long) maxLat - minLat >= (long) maxLon - minLon;
+            int mid = (from + to) >>> 1;
+            select(byLat ? lat : lon, byLat ? lon : lat, id, from, to - 1, mid);
+            axis[mid] = byLat ? SPLIT_LAT : SPLIT_LON;
+            // Recurse into the smaller half, loop on the larger one.
+            split(lat, lon, id, axis, from, mid);
+            from = mid + 1;
+        }
+    }
+
+    /**
+     * Reorders {@code [left, right]} so the entry at {@code k} has the value it would have if sorted by
+     * {@code key}, with no greater key before it and no smaller one after.
+     */
+    private static void select(int[] key, int[] other, int[] id, int left, int right, int k) {
+        while (right > left) {
+            int pivot = key[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (key[i] < pivot) {
+                    i++;
+                }
+                while (key[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(key, other, id, i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(int[] key, int[] other, int[] id, int i, int j) {
+        int t = key[i];
+        key[i] = key[j];
+        key[j] = t;
+        t = other[i];
+        other[i] = other[j];
+        other[j] = t;
+        t = id[i];
+        id[i] = id[j];
+        id[j] = t;
+    }
+
+    /**
+     * Returns the positions of the {@code k} features nearest to the given location, nearest first,
+     * leaving out those farther than {@code maxMeters}.
+     */
+    IntList nearest(int latitude, int longitude, int k, double maxMeters) {
+        Search search = new Search(latitude, longitude, k, maxMeters);
+        if (id.length > 0 && k > 0) {
+            search(search, 0, id.length, minLat, maxLat, minLon, maxLon);
+        }
+        return search.result();
+    }
+
+    private void search(Search search, int from, int to, int minLat, int maxLat, int minLon, int maxLon) {
+        if (search.lowerBound(minLat, maxLat, minLon, maxLon) > search.limit()) {
+            return;
+        }
+        if (to - from <= LEAF_SIZE) {
+            for (int i = from; i < to; i++) {
+                search.offer(i, lat[i], lon[i], cosLat[i]);
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        search.offer(mid, lat[mid], lon[mid], cosLat[mid]);
+        if (axis[mid] == SPLIT_LAT) {
+            int split = lat[mid];
+            if (search.latitude < split) {
+                search(search, from, mid, minLat, split, minLon, maxLon);
+                search(search, mid + 1, to, split, maxLat, minLon, maxLon);
+            } else {
+                search(search, mid + 1, to, split, maxLat, minLon, maxLon);
+                search(search, from, mid, minLat, split, minLon, maxLon);
+            }
+        } else {
+            int split = lon[mid];
+            if (search.longitude < split) {
+                search(search, from, mid, minLat, maxLat, minLon, split);
+                search(search, mid + 1, to, minLat, maxLat, split, maxLon);
+            } else {
+                search(search, mid + 1, to, minLat, maxLat, split, maxLon);
+                search(search, from, mid, minLat, maxLat, minLon, split);
+            }
+        }
+    }
+
+    /** State of one query: the k best entries so far, in a max-heap on the haversine term. */
+    private final class Search {
+        final int latitude;
+        final int longitude;
+        final double latRadians;
+        final double lonRadians;
+        final double cosLatitude;
+        final int k;
+        /** Haversine term of {@code maxMeters}; entries beyond it are never taken. */
+        final double maxTerm;
+        final double[] heapTerm;
+        final int[] heapEntry;
+        int size;
+
+        Search(int latitude, int longitude, int k, double maxMeters) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.latRadians = GeoDistance.radians(latitude);
+            this.lonRadians = GeoDistance.radians(longitude);
+            this.cosLatitude = Math.cos(latRadians);
+            this.k = k;
+            double angle = maxMeters / GeoDistance.EARTH_RADIUS;
+            double sin = Math.sin(angle / 2);
+            this.maxTerm = angle >= Math.PI ? 1 : sin * sin;
+            int capacity = Math.max(0, Math.min(k, id.length));
+            this.heapTerm = new double[capacity];
+            this.heapEntry = new int[capacity];
+        }
+
+        double limit() {
+            return size < k ? maxTerm : heapTerm[0];
+        }
+
+        /**
+         * Lower bound of the haversine term over the box. The nearest longitude of the box is one of
+         * its edges, either way round the antimeridian.
+         */
+        double lowerBound(int minLat, int maxLat, int minLon, int maxLon) {
+            int latGap = latitude < minLat ? minLat - latitude : latitude > maxLat ? latitude - maxLat : 0;
+            double sinLat = Math.sin(GeoDistance.radians(latGap) / 2);
+            double term = sinLat * sinLat;
+            if (longitude >= minLon && longitude <= maxLon) {
+                return term;
+            }
+            double lonGap = Math.min(angle(longitude, minLon), angle(longitude, maxLon));
+            // The cosine of the box latitude farthest from the equator bounds that of every entry.
+            double poleward = Math.max(Math.abs((double) minLat), Math.abs((double) maxLat));
+            double cosBox = Math.cos(Math.min(Math.PI / 2, poleward * GeoDistance.radians(1)));
+            double sinLon = Math.sin(lonGap / 2);
+            return term + cosLatitude * cosBox * sinLon * sinLon;
+        }
+
+        /** Angle in radians between two longitudes, at most pi. */
+        private double angle(int lon1, int lon2) {
+            double angle = Math.abs(GeoDistance.radians(lon1) - GeoDistance.radians(lon2)) % (2 * Math.PI);
+            return angle > Math.PI ? 2 * Math.PI - angle : angle;
+        }
+
+        void offer(int entry, int entryLat, int entryLon, double entryCosLat) {
+            double sinLat = Math.sin((GeoDistance.radians(entryLat) - latRadians) / 2);
+            double sinLon = Math.sin((GeoDistance.radians(entryLon) - lonRadians) / 2);
+            double term = sinLat * sinLat + cosLatitude * entryCosLat * sinLon * sinLon;
+            if (size < k) {
+                if (term <= maxTerm) {
+                    heapTerm[size] = term;
+                    heapEntry[size] = entry;
+                    siftUp(size++);
+                }
+            } else if (term < heapTerm[0]) {
+                heapTerm[0] = term;
+                heapEntry[0] = entry;
+                siftDown(0);
+            }
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heapTerm[parent] >= heapTerm[i]) {
+                    return;
+                }
+                swapHeap(parent, i);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int largest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && heapTerm[left] > heapTerm[largest]) {
+                    largest = left;
+                }
+                if (right < size && heapTerm[right] > heapTerm[largest]) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swapHeap(largest, i);
+                i = largest;
+            }
+        }
+
+        private void swapHeap(int i, int j) {
+            double term = heapTerm[i];
+            heapTerm[i] = heapTerm[j];
+            heapTerm[j] = term;
+            int entry = heapEntry[i];
+            heapEntry[i] = heapEntry[j];
+            heapEntry[j] = entry;
+        }
+
+        /** Empties the heap, farthest first, into a list of positions nearest first. */
+        IntList result() {
+            int[] positions = new int[size];
+            while (size > 0) {
+                positions[size - 1] = id[heapEntry[0]];
+                size--;
+                heapTerm[0] = heapTerm[size];
+                heapEntry[0] = heapEntry[size];
+                siftDown(0);
+            }
+            IntList result = new IntList(positions.length);
+            for (int position : positions) {
+                result.accept(position);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Feature;
+import com.lxd.grpcl.Point;
+import com.lxd.grpcl.Rectangle;
+import com.lxd.grpcl.RouteNote;
+import com.lxd.grpcl.RouteSummary;
+import com.lxd.grpcl.RoutedGuideGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a mix of all four RPCs against a RouteGuide server and reports throughput and latency
+ * percentiles.
+ *
+ * <p>With a target rate, requests are issued open loop: each one has an intended start time on a
+ * fixed schedule, and its latency is measured from that time even when it has to wait for a free
+ * slot, so a stalled server is not hidden by the generator slowing down (coordinated omission).
+ * Without a target rate, {@code concurrency} requests are kept in flight as fast as they
+ * complete.</p>
+ *
+ * <p>Run through {@code RouteGuideClient --load [options]}, see {@link #usage()}.</p>
+ */
+public final class LoadGenerator {
+    private static final String[] RPCS = {"GetFeature", "ListFeatures", "RecordRoute", "RouteChat"};
+    private static final int GET_FEATURE = 0;
+    private static final int LIST_FEATURES = 1;
+    private static final int RECORD_ROUTE = 2;
+    private static final int ROUTE_CHAT = 3;
+    /** Latencies above an hour are clamped, with 3 significant digits. */
+    private static final long MAX_LATENCY_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    private final RoutedGuideGrpc.RoutedGuideStub stub;
+    private final FeatureStore features;
+    private final Options options;
+    private final Semaphore inFlight;
+    private final Recorder[] recorders = new Recorder[RPCS.length];
+    private final AtomicLong[] errors = new AtomicLong[RPCS.length];
+    private final int[] cumulativeMix = new int[RPCS.length];
+    private final Random random = new Random();
+
+    private LoadGenerator(ManagedChannel channel, FeatureStore features, Options options) {
+        this.stub = RoutedGuideGrpc.newStub(channel);
+        this.features = features;
+        this.options = options;
+        this.inFlight = new Semaphore(options.concurrency);
+        for (int i = 0; i < RPCS.length; i++) {
+            recorders[i] = new Recorder(MAX_LATENCY_NANOS, 3);
+            errors[i] = new AtomicLong();
+            cumulativeMix[i] = options.mix[i] + (i == 0 ? 0 : cumulativeMix[i - 1]);
+        }
+        if (cumulativeMix[RPCS.length - 1] == 0) {
+            throw new IllegalArgumentException("The request mix must not be empty");
+        }
+    }
+
+    /** Issues requests for the warm-up, then for the measured duration, and prints the report. */
+    private void run() throws InterruptedException {
+        Histogram[] totals = new Histogram[RPCS.length];
+        for (int i = 0; i < RPCS.length; i++) {
+            totals[i] = new Histogram(MAX_LATENCY_NANOS, 3);
+        }
+        long intervalNanos = options.qps > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / options.qps) : 0;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        long nextReport = measureFrom + TimeUnit.SECONDS.toNanos(1);
+        long intended = start;
+        while (true) {
+            long now = System.nanoTime();
+            if (intervalNanos > 0) {
+                // Open loop: keep the schedule even when late, never skip requests.
+                intended += intervalNanos;
+                if (intended > now) {
+                    LockSupport.parkNanos(intended - now);
+                }
+            } else {
+                intended = now;
+            }
+            if (intended >= end) {
+                break;
+            }
+            boolean measuring = intended >= measureFrom;
+            if (measuring && now >= nextReport) {
+                report(totals, (nextReport - measureFrom) / TimeUnit.SECONDS.toNanos(1));
+                nextReport += TimeUnit.SECONDS.toNanos(1);
+            }
+            inFlight.acquire();
+            issue(pickRpc(), intended, measuring);
+        }
+        // Let the requests in flight finish.
+        inFlight.acquire(options.concurrency);
+        report(totals, -1);
+
+        long elapsed = Math.max(end - measureFrom, 1);
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-13s %9s %7s %10s %9s %9s %9s %9s %9s%n",
+                "rpc", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        long count = 0;
+        for (int i = 0; i < RPCS.length; i++) {
+            Histogram histogram = totals[i];
+            count += histogram.getTotalCount();
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            System.out.printf(Locale.ROOT, "%-13s %9d %7d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                    RPCS[i], histogram.getTotalCount(), errors[i].get(),
+                    histogram.getTotalCount() * 1e9 / elapsed,
+                    millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+                    millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()));
+        }
+        System.out.printf(Locale.ROOT, "%-13s %9d %7s %10.1f%n", "total", count, "", count * 1e9 / elapsed);
+    }
+
+    /** Moves the latencies recorded since the last report into {@code totals} and prints the interval. */
+    private void report(Histogram[] totals, long second) {
+        long count = 0;
+        long max = 0;
+        for (int i = 0; i < RPCS.length; i++) {
+            Histogram interval = recorders[i].getIntervalHistogram();
+            totals[i].add(interval);
+            count += interval.getTotalCount();
+            max = Math.max(max, interval.getMaxValue());
+        }
+        if (second >= 0) {
+            System.out.printf(Locale.ROOT, "%4ds %9d requests, max latency %.3f ms%n", second, count, millis(max));
+        }
+    }
+
+    private int pickRpc() {
+        int value = random.nextInt(cumulativeMix[RPCS.length - 1]);
+        int rpc = 0;
+        while (value >= cumulativeMix[rpc]) {
+            rpc++;
+        }
+        return rpc;
+    }
+
+    private void issue(int rpc, long intended, boolean measured) {
+        switch (rpc) {
+            case GET_FEATURE:
+                stub.getFeature(randomPoint(), new Completion<Feature>(rpc, intended, measured));
+                break;
+            case LIST_FEATURES:
+                int lat = randomLatitude();
+                int lon = randomLongitude();
+                stub.listFeatures(Rectangle.newBuilder()
+                        .setLo(Point.newBuilder().setLatitude(lat).setLongitude(lon))
+                        .setHi(Point.newBuilder().setLatitude(lat + options.rectangleSize)
+                                .setLongitude(lon + options.rectangleSize))
+                        .build(), new Completion<Feature>(rpc, intended, measured));
+                break;
+            case RECORD_ROUTE:
+                StreamObserver<Point> route = stub.recordRoute(new Completion<RouteSummary>(rpc, intended, measured));
+                for (int i = 0; i < options.routePoints; i++) {
+                    route.onNext(randomPoint());
+                }
+                route.onCompleted();
+                break;
+            default:
+                StreamObserver<RouteNote> chat = stub.routeChat(new Completion<RouteNote>(rpc, intended, measured));
+                for (int i = 0; i < options.chatNotes; i++) {
+                    chat.onNext(RouteNote.newBuilder().setMessage("Load note " + i).setLocation(randomPoint()).build());
+                }
+                chat.onCompleted();
+                break;
+        }
+    }
+
+    /** Location of a random feature, so lookups mostly hit. */
+    private Point randomPoint() {
+        int index = random.nextInt(features.size());
+        return Point.newBuilder().setLatitude(features.latitude(index))
+                .setLongitude(features.longitude(index)).build();
+    }
+
+    private int randomLatitude() {
+        return features.latitude(random.nextInt(features.size()));
+    }
+
+    private int randomLongitude() {
+        return features.longitude(random.nextInt(features.size()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Records the latency of one call, from its intended start, unless issued during the warm-up, and
+     * frees its slot.
+     */
+    private final class Completion<T> implements StreamObserver<T> {
+        private final int rpc;
+        private final long intended;
+        private final boolean measured;
+
+        Completion(int rpc, long intended, boolean measured) {
+            this.rpc = rpc;
+            this.intended = intended;
+            this.measured = measured;
+        }
+
+        @Override
+        public void onNext(T value) {
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (measured) {
+                errors[rpc].incrementAndGet();
+            }
+            onCompleted();
+        }
+
+        @Override
+        public void onCompleted() {
+            if (measured) {
+                recorders[rpc].recordValue(Math.min(System.nanoTime() - intended, MAX_LATENCY_NANOS));
+            }
+            inFlight.release();
+        }
+    }
+
+    /** Command line options. */
+    private static final class Options {
+        String target;
+        boolean netty;
+        Path database;
+        double qps;
+        int concurrency = 64;
+        int durationSeconds = 10;
+        int warmupSeconds = 2;
+        int[] mix = {70, 10, 10, 10};
+        int routePoints = 10;
+        int chatNotes = 10;
+        int rectangleSize = 10_000_000;
+        boolean help;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                String name = equals < 0 ? arg : arg.substring(0, equals);
+                String value = equals < 0 ? "" : arg.substring(equals + 1);
+                switch (name) {
+                    case "--help":
+                        options.help = true;
+                        break;
+                    case "--target":
+                        options.target = value;
+                        break;
+                    case "--transport":
+                        if (!"inprocess".equals(value) && !"netty".equals(value)) {
+                            throw new IllegalArgumentException("Unknown transport " + value);
+                        }
+                        options.netty = "netty".equals(value);
+                        break;
+                    case "--db":
+                        options.database = Paths.get(value);
+                        break;
+                    case "--qps":
+                        options.qps = Double.parseDouble(value);
+                        break;
+                    case "--concurrency":
+                        options.concurrency = Integer.parseInt(value);
+                        break;
+                    case "--duration":
+                        options.durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "--warmup":
+                        options.warmupSeconds = Integer.parseInt(value);
+                        break;
+                    case "--mix":
+                        options.mix = parseMix(value);
+                        break;
+                    case "--route-points":
+                        options.routePoints = Integer.parseInt(value);
+                        break;
+                    case "--chat-notes":
+                        options.chatNotes = Integer.parseInt(value);
+                        break;
+                    case "--rectangle":
+                        options.rectangleSize = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (options.concurrency <= 0 || options.durationSeconds <= 0 || options.warmupSeconds < 0) {
+                throw new IllegalArgumentException("concurrency and duration must be positive");
+            }
+            return options;
+        }
+
+        /** Parses weights such as {@code get:70,list:10,record:10,chat:10}; missing RPCs get 0. */
+        private static int[] parseMix(String value) {
+            int[] mix = new int[RPCS.length];
+            for (String part : value.split(",")) {
+                String[] weight = part.split(":");
+                int rpc;
+                switch (weight[0]) {
+                    case "get":
+                        rpc = GET_FEATURE;
+                        break;
+                    case "list":
+                        rpc = LIST_FEATURES;
+                        break;
+                    case "record":
+                        rpc = RECORD_ROUTE;
+                        break;
+                    case "chat":
+                        rpc = ROUTE_CHAT;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown RPC " + weight[0] + " in --mix");
+                }
+                mix[rpc] = Integer.parseInt(weight[1]);
+            }
+            return mix;
+        }
+    }
+
+    static void usage() {
+        System.err.println("Usage: --load [options]");
+        System.err.println("");
+        System.err.println("  --target=host:port      Server to load. Defaults to a server started in this process");
+        System.err.println("  --transport=inprocess   Transport of the local server: inprocess (default) or netty,");
+        System.err.println("                          configured by the ServerOptions system properties");
+        System.err.println("  --db=file               Feature database of the local server, JSON or binary");
+        System.err.println("  --qps=n                 Open loop target rate. Defaults to closed loop, as fast as possible");
+        System.err.println("  --concurrency=n         Maximum requests in flight. Defaults to 64");
+        System.err.println("  --duration=s            Measured seconds. Defaults to 10");
+        System.err.println("  --warmup=s              Unmeasured seconds first. Defaults to 2");
+        System.err.println("  --mix=get:70,list:10,record:10,chat:10   Relative weight of every RPC");
+        System.err.println("  --route-points=n        Points per RecordRoute. Defaults to 10");
+        System.err.println("  --chat-notes=n          Notes per RouteChat. Defaults to 10");
+        System.err.println("  --rectangle=n           Side of ListFeatures rectangles, in E7 degrees. Defaults to 10000000");
+        System.err.println("  --help                  Prints this message");
+    }
+
+    /**
+     * Runs the load generator with the given options. Requests pick their locations from the local
+     * server's database, or from the bundled one when loading a remote server.
+     */
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(1);
+            return;
+        }
+        if (options.help) {
+            usage();
+            System.exit(0);
+            return;
+        }
+
+        FeatureStore features = loadFeatures(options.database);
+        RouteGuideServer server = null;
+        ManagedChannel channel;
+        if (options.target != null) {
+            channel = ManagedChannelBuilder.forTarget(options.target).usePlaintext().build();
+        } else if (options.netty) {
+            server = new RouteGuideServer(ServerOptions.fromSystemProperties(), 0, features);
+            server.start();
+            channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        } else {
+            String name = "route-guide-load-" + System.nanoTime();
+            server = new RouteGuideServer(InProcessServerBuilder.forName(name), 0, features);
+            server.start();
+            channel = InProcessChannelBuilder.forName(name).build();
+        }
+        try {
+            new LoadGenerator(channel, features, options).run();
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private static FeatureStore loadFeatures(Path database) throws IOException {
+        if (database == null) {
+            return ColumnarFeatureStore.of(RouteGuideUtil.parseFeatures(RouteGuideUtil.getDefaultFeaturesFile()));
+        }
+        if (database.toString().endsWith(".json")) {
+            ColumnarFeatureStore.Builder builder = new ColumnarFeatureStore.Builder();
+            new StreamingFeatureLoader().load(database.toUri().toURL(), builder);
+            return builder.build();
+        }
+        return FeatureDatabaseFile.map(database).features;
+    }
+}
@@ -0,0 +1,15 @@
+package com.lxd.route;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Publishes {@link ServerMetrics} somewhere, for instance over HTTP for Prometheus to scrape. Started
+ * and closed together with the {@link RouteGuideServer} it is added to; closing must also work if
+ * it was never started, or failed to start.
+ */
+public interface MetricsExporter extends Closeable {
+
+    /** Starts publishing {@code metrics}. */
+    void start(ServerMetrics metrics) throws IOException;
+}
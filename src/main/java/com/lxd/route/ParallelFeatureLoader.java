@@ -0,0 +1,329 @@
+package com.lxd.route;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Loads one or more JSON feature databases (shards) on a fork-join pool.
+ *
+ * <p>Every shard is cut into chunks of whole features by a quick byte scan that only tracks
+ * strings and nesting. The chunks are parsed in parallel into separate builders, merged in file
+ * order and then indexed, also in parallel. The time taken is logged and compared against the
+ * {@code routeguide.startupTargetMillis} system property, if set.</p>
+ */
+public final class ParallelFeatureLoader {
+    private static final Logger logger = Logger.getLogger(ParallelFeatureLoader.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] FEATURE_KEY = "feature".getBytes(UTF_8);
+    /** Chunks are never cut smaller than this many bytes. */
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    private final ForkJoinPool pool;
+
+    /** Creates a loader using one thread per available processor. */
+    public ParallelFeatureLoader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelFeatureLoader(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /** Loads every feature of {@code shards}, in order, into a heap {@link ColumnarFeatureStore}. */
+    public ColumnarFeatureStore load(List<Path> shards) throws IOException {
+        return run(new LoadTask(shards)).build();
+    }
+
+    /** Loads {@code shards} like {@link #load(List)}, then builds the configured indexes. */
+    IndexedFeatureStore loadIndexed(List<Path> shards) throws IOException {
+        long start = System.nanoTime();
+        final ColumnarFeatureStore features = run(new LoadTask(shards)).build();
+        long loaded = System.nanoTime();
+        IndexedFeatureStore indexed = run(ForkJoinTask.adapt(new Callable<IndexedFeatureStore>() {
+            @Override
+            public IndexedFeatureStore call() {
+                return IndexedFeatureStore.build(features);
+            }
+        }));
+        long indexedAt = System.nanoTime();
+
+        long total = TimeUnit.NANOSECONDS.toMillis(indexedAt - start);
+        logger.info("Loaded " + features.size() + " features from " + shards.size() + " shard(s) in "
+                + TimeUnit.NANOSECONDS.toMillis(loaded - start) + " ms and indexed them in "
+                + TimeUnit.NANOSECONDS.toMillis(indexedAt - loaded) + " ms on " + pool.getParallelism()
+                + " threads");
+        long target = Long.getLong("routeguide.startupTargetMillis", 0);
+        if (target > 0) {
+            if (total > target) {
+                logger.warning("Feature database startup took " + total + " ms, missing the " + target
+                        + " ms target");
+            } else {
+                logger.info("Feature database startup took " + total + " ms, within the " + target
+                        + " ms target");
+            }
+        }
+        return indexed;
+    }
+
+    /** Releases the threads of the pool. */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private <T> T run(ForkJoinTask<T> task) throws IOException {
+        try {
+            return pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading features", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ChunkException) {
+                throw (IOException) e.getCause().getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /** Splits every shard into chunks, then parses the chunks in parallel and merges them. */
+    private final class LoadTask extends RecursiveTask<ColumnarFeatureStore.Builder> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> shards;
+
+        LoadTask(List<Path> shards) {
+            this.shards = shards;
+        }
+
+        @Override
+        protected ColumnarFeatureStore.Builder compute() {
+            List<FileChannel> channels = new ArrayList<>();
+            try {
+                List<Chunk> chunks = new ArrayList<>();
+                for (Path shard : shards) {
+                    FileChannel channel = FileChannel.open(shard, StandardOpenOption.READ);
+                    channels.add(channel);
+                    long chunkSize = Math.max(MIN_CHUNK_SIZE, channel.size() / (pool.getParallelism() * 4L));
+                    chunks.addAll(split(shard, channel, chunkSize));
+                }
+                return new ParseTask(chunks, 0, chunks.size()).invoke();
+            } catch (IOException e) {
+                throw new ChunkException(e);
+            } finally {
+                for (FileChannel channel : channels) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // Only read from.
+                    }
+                }
+            }
+        }
+    }
+
+    /** Parses {@code [from, to)} of the chunks, splitting the range in halves while it is larger than one. */
+    private static final class ParseTask extends RecursiveTask<ColumnarFeatureStore.Builder> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Chunk> chunks;
+        private final int from;
+        private final int to;
+
+        ParseTask(List<Chunk> chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ColumnarFeatureStore.Builder compute() {
+            if (to - from <= 1) {
+                ColumnarFeatureStore.Builder builder = new ColumnarFeatureStore.Builder();
+                if (from < to) {
+                    chunks.get(from).parse(builder);
+                }
+                return builder;
+            }
+            int mid = (from + to) >>> 1;
+            ParseTask right = new ParseTask(chunks, mid, to);
+            right.fork();
+            ColumnarFeatureStore.Builder left = new ParseTask(chunks, from, mid).compute();
+            return left.append(right.join());
+        }
+    }
+
+    /** Byte range of a shard holding a comma separated run of whole feature objects. */
+    private static final class Chunk {
+        final Path shard;
+        final FileChannel channel;
+        final long start;
+        final long end;
+
+        Chunk(Path shard, FileChannel channel, long start, long end) {
+            this.shard = shard;
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        void parse(ColumnarFeatureStore.Builder builder) {
+            // Wrap the run in brackets so it reads as a JSON array.
+            InputStream input = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                    new ByteArrayInputStream(new byte[] {'['}),
+                    new RangeInputStream(channel, start, end),
+                    new ByteArrayInputStream(new byte[] {']'}))));
+            JsonReader json = new JsonReader(new InputStreamReader(input, UTF_8));
+            try {
+                json.beginArray();
+                while (json.hasNext()) {
+                    StreamingFeatureLoader.readFeature(json, builder);
+                }
+                json.endArray();
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                throw new ChunkException(new IOException(
+                        "Malformed feature database " + shard + " near byte " + start + ": " + e.getMessage(), e));
+            }
+        }
+    }
+
+    /**
+     * Scans {@code shard} for the elements of its top level {@code "feature"} array and cuts the
+     * array at element boundaries into chunks of about {@code chunkSize} bytes.
+     */
+    private static List<Chunk> split(Path shard, FileChannel channel, long chunkSize) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        byte[] bytes = new byte[1 << 16];
+        byte[] key = new byte[FEATURE_KEY.length];
+        int keyLength = 0;
+        boolean keyMatches = false;
+
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        boolean inFeatures = false;
+        long chunkStart = 0;
+
+        long position = 0;
+        int read;
+        while ((read = channel.read(ByteBuffer.wrap(bytes), position)) > 0) {
+            for (int i = 0; i < read; i++, position++) {
+                byte b = bytes[i];
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '"') {
+                        inString = false;
+                        if (depth == 1) {
+                            keyMatches = keyLength == FEATURE_KEY.length && Arrays.equals(key, FEATURE_KEY);
+                        }
+                    } else if (depth == 1) {
+                        if (keyLength < key.length) {
+                            key[keyLength] = b;
+                        }
+                        keyLength++;
+                    }
+                    continue;
+                }
+                switch (b) {
+                    case '"':
+                        inString = true;
+                        keyLength = 0;
+                        break;
+                    case '{':
+                    case '[':
+                        depth++;
+                        if (b == '[' && depth == 2 && keyMatches) {
+                            inFeatures = true;
+                            chunkStart = position + 1;
+                        }
+                        break;
+                    case '}':
+                    case ']':
+                        if (depth == 2 && inFeatures) {
+                            inFeatures = false;
+                            chunks.add(new Chunk(shard, channel, chunkStart, position));
+                        }
+                        depth--;
+                        break;
+                    case ',':
+                        if (depth == 2 && inFeatures && position - chunkStart >= chunkSize) {
+                            chunks.add(new Chunk(shard, channel, chunkStart, position));
+                            chunkStart = position + 1;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        return chunks;
+    }
+
+    /** Reads {@code [start, end)} of a channel with positional reads, so several can share it. */
+    private static final class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RangeInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+    }
+
+    /** Carries an {@link IOException} out of a fork-join task. */
+    private static final class ChunkException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ChunkException(IOException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.lxd.route;
+
+/**
+ * Immutable exact-location index over a {@link FeatureStore}.
+ *
+ * <p>When several features share a location the one with the lowest position wins, which matches
+ * the behaviour of a linear scan.</p>
+ */
+interface PointIndex {
+
+    /**
+     * Returns the position of the feature at the given location, or {@code -1} if there is none.
+     */
+    int find(int latitude, int longitude);
+
+    /** Packs a latitude/longitude pair into a single {@code long} key. */
+    static long pack(int latitude, int longitude) {
+        return ((long) latitude << 32) | (longitude & 0xFFFFFFFFL);
+    }
+
+    /** Returns an "index" that scans the whole store, only useful to compare against the real ones. */
+    static PointIndex scan(final FeatureStore features) {
+        return new PointIndex() {
+            @Override
+            public int find(int latitude, int longitude) {
+                for (int i = 0; i < features.size(); i++) {
+                    if (features.latitude(i) == latitude && features.longitude(i) == longitude) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+        };
+    }
+}
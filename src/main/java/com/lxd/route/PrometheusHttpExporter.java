@@ -0,0 +1,80 @@
+package com.lxd.route;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.logging.Logger;
+
+/**
+ * Serves {@link ServerMetrics} in the Prometheus text format at {@code /metrics}, using the HTTP
+ * server built into the JDK.
+ */
+public final class PrometheusHttpExporter implements MetricsExporter {
+    private static final Logger logger = Logger.getLogger(PrometheusHttpExporter.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final InetSocketAddress address;
+    private HttpServer server;
+
+    /** Listens on {@code port} of the loopback interface, so metrics are not exposed remotely by default. */
+    public PrometheusHttpExporter(int port) {
+        this(new InetSocketAddress("localhost", port));
+    }
+
+    public PrometheusHttpExporter(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    @Override
+    public synchronized void start(final ServerMetrics metrics) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Already started");
+        }
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                        exchange.sendResponseHeaders(405, -1);
+                        return;
+                    }
+                    StringBuilder text = new StringBuilder(4096);
+                    metrics.writePrometheus(text);
+                    byte[] body = text.toString().getBytes(UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    if ("HEAD".equals(exchange.getRequestMethod())) {
+                        exchange.sendResponseHeaders(200, -1);
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        logger.info("Serving metrics at http://" + address.getHostString() + ":" + getPort() + "/metrics");
+    }
+
+    /** Port the endpoint is bound to, useful after starting it on port 0. */
+    public synchronized int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.lxd.route;
+
+import java.util.Arrays;
+
+/**
+ * Finds the named features within a great-circle radius of a point, nearest first.
+ *
+ * <p>The spatial index is searched with the bounding box of the circle: its latitude span, and the
+ * widest longitude span of the circle at any latitude, {@code asin(sin(r) / cos(lat))}. A box
+ * crossing the antimeridian is searched as two boxes, one on each side, and a circle around a pole
+ * spans every longitude. Candidates are then kept only if their haversine distance is within the
+ * radius.</p>
+ */
+final class RadiusSearch {
+    private static final long MAX_LON = 1800000000L;
+    private static final long MAX_LAT = 900000000L;
+
+    private RadiusSearch() {
+    }
+
+    /** Positions of the named features within {@code meters} of the given location, nearest first. */
+    static IntList search(IndexedFeatureStore indexed, int latitude, int longitude, double meters) {
+        IntList candidates = new IntList();
+        double angle = meters / GeoDistance.EARTH_RADIUS;
+        double lat = GeoDistance.radians(latitude);
+        if (angle >= Math.PI) {
+            indexed.spatialIndex.search(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                    candidates);
+        } else if (lat - angle <= -Math.PI / 2 || lat + angle >= Math.PI / 2) {
+            // Around a pole every longitude is within reach.
+            int minLat = (int) Math.max(-MAX_LAT, toE7Floor(lat - angle));
+            int maxLat = (int) Math.min(MAX_LAT, toE7Ceil(lat + angle));
+            indexed.spatialIndex.search(minLat, Integer.MIN_VALUE, maxLat, Integer.MAX_VALUE, candidates);
+        } else {
+            int minLat = (int) toE7Floor(lat - angle);
+            int maxLat = (int) toE7Ceil(lat + angle);
+            double lonSpan = Math.asin(Math.min(1, Math.sin(angle) / Math.cos(lat)));
+            double lon = GeoDistance.radians(longitude);
+            long minLon = toE7Floor(lon - lonSpan);
+            long maxLon = toE7Ceil(lon + lonSpan);
+            if (maxLon - minLon >= 2 * MAX_LON) {
+                indexed.spatialIndex.search(minLat, Integer.MIN_VALUE, maxLat, Integer.MAX_VALUE, candidates);
+            } else if (minLon < -MAX_LON) {
+                indexed.spatialIndex.search(minLat, (int) (minLon + 2 * MAX_LON), maxLat, (int) MAX_LON, candidates);
+                indexed.spatialIndex.search(minLat, (int) -MAX_LON, maxLat, (int) maxLon, candidates);
+            } else if (maxLon > MAX_LON) {
+                indexed.spatialIndex.search(minLat, (int) minLon, maxLat, (int) MAX_LON, candidates);
+                indexed.spatialIndex.search(minLat, (int) -MAX_LON, maxLat, (int) (maxLon - 2 * MAX_LON), candidates);
+            } else {
+                indexed.spatialIndex.search(minLat, (int) minLon, maxLat, (int) maxLon, candidates);
+            }
+        }
+        return filterAndSort(indexed.features, candidates, latitude, longitude, meters);
+    }
+
+    /**
+     * Keeps the candidates within {@code meters}, sorted by distance. Each is sorted as a long key,
+     * the distance in centimeters above its index among the candidates, ties going to the first found.
+     */
+    private static IntList filterAndSort(FeatureStore features, IntList candidates, int latitude, int longitude,
+                                         double meters) {
+        double lat = GeoDistance.radians(latitude);
+        double lon = GeoDistance.radians(longitude);
+        double cosLat = Math.cos(lat);
+        long[] keys = new long[candidates.size()];
+        int count = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            int position = candidates.get(i);
+            double otherLat = GeoDistance.radians(features.latitude(position));
+            double distance = GeoDistance.haversine(lat, lon, cosLat,
+                    otherLat, GeoDistance.radians(features.longitude(position)), Math.cos(otherLat));
+            if (distance <= meters) {
+                keys[count++] = (long) (distance * 100) << 32 | i;
+            }
+        }
+        Arrays.sort(keys, 0, count);
+        IntList result = new IntList(count);
+        for (int i = 0; i < count; i++) {
+            result.accept(candidates.get((int) keys[i]));
+        }
+        return result;
+    }
+
+    private static long toE7Floor(double radians) {
+        return (long) Math.floor(Math.toDegrees(radians) * 1e7) - 1;
+    }
+
+    private static long toE7Ceil(double radians) {
+        return (long) Math.ceil(Math.toDegrees(radians) * 1e7) + 1;
+    }
+}
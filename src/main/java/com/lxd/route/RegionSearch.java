@@ -0,0 +1,228 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Point;
+import com.lxd.grpcl.Polygon;
+import com.lxd.grpcl.Rectangle;
+import com.lxd.grpcl.Region;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Finds the named features inside a {@link Region}, the union of any number of polygons and
+ * rectangles, in store position order with every feature listed once however many shapes hold it.
+ *
+ * <p>Like rectangles, polygons are taken in plain latitude and longitude coordinates and must not
+ * cross the antimeridian. Rectangles include their boundary; points on a polygon edge may fall
+ * either way. A self-intersecting polygon holds the points that are inside an odd number of times.</p>
+ *
+ * <p>Each shape searches the spatial index with its bounding box, and candidates are tested
+ * against the shape itself. Polygons are tested through an {@link EdgeTable}.</p>
+ */
+final class RegionSearch {
+    /** Most vertices all the polygons of a region may have together. */
+    static final int MAX_VERTICES = 100000;
+
+    private RegionSearch() {
+    }
+
+    /**
+     * Positions of the named features inside {@code region}, sorted.
+     *
+     * @throws IllegalArgumentException if a polygon has fewer than three vertices or the region more
+     *     than {@link #MAX_VERTICES}
+     */
+    static IntList search(IndexedFeatureStore indexed, Region region) {
+        List<EdgeTable> polygons = new ArrayList<>(region.getPolygonCount());
+        int vertices = 0;
+        for (Polygon polygon : region.getPolygonList()) {
+            vertices += polygon.getVertexCount();
+            if (polygon.getVertexCount() < 3 || vertices > MAX_VERTICES) {
+                throw new IllegalArgumentException("polygons need at least 3 vertices, and at most "
+                        + MAX_VERTICES + " in total");
+            }
+            polygons.add(new EdgeTable(polygon.getVertexList()));
+        }
+
+        IntList found = new IntList();
+        for (final EdgeTable polygon : polygons) {
+            final FeatureStore features = indexed.features;
+            final IntList sink = found;
+            indexed.spatialIndex.search(polygon.minLat, polygon.minLon, polygon.maxLat, polygon.maxLon,
+                    new IntConsumer() {
+                        @Override
+                        public void accept(int position) {
+                            if (polygon.contains(features.latitude(position), features.longitude(position))) {
+                                sink.accept(position);
+                            }
+                        }
+                    });
+        }
+        for (Rectangle rectangle : region.getRectangleList()) {
+            indexed.spatialIndex.search(
+                    Math.min(rectangle.getLo().getLatitude(), rectangle.getHi().getLatitude()),
+                    Math.min(rectangle.getLo().getLongitude(), rectangle.getHi().getLongitude()),
+                    Math.max(rectangle.getLo().getLatitude(), rectangle.getHi().getLatitude()),
+                    Math.max(rectangle.getLo().getLongitude(), rectangle.getHi().getLongitude()),
+                    found);
+        }
+        return sortedUnique(found);
+    }
+
+    private static IntList sortedUnique(IntList positions) {
+        int[] sorted = new int[positions.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = positions.get(i);
+        }
+        Arrays.sort(sorted);
+        IntList unique = new IntList(sorted.length);
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                unique.accept(sorted[i]);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Point-in-polygon test by ray casting along increasing longitudes, with the edges precomputed
+     * and bucketed into latitude bands.
+     *
+     * <p>Every non-horizontal edge is stored from its lower to its upper end, with the longitude at
+     * the lower end and the change of longitude per unit of latitude, and is listed in each band its
+     * latitude span overlaps. A test only walks the edges of the band of the point, counting those
+     * crossed east of it; spans are half-open so a ray through a vertex counts it once.</p>
+     */
+    static final class EdgeTable {
+        private static final int MAX_BANDS = 4096;
+        private static final int MAX_ENTRIES_PER_EDGE = 4;
+        final int minLat;
+        final int maxLat;
+        final int minLon;
+        final int maxLon;
+        private final int bands;
+        private final double bandHeight;
+        /** Edges of band {@code b} are {@code bandEdges[bandStart[b]]} to before {@code bandStart[b + 1]}. */
+        private final int[] bandStart;
+        private final int[] bandEdges;
+        private final int[] edgeLowLat;
+        private final int[] edgeHighLat;
+        private final double[] edgeLowLon;
+        private final double[] edgeSlope;
+
+        EdgeTable(List<Point> vertices) {
+            int n = vertices.size();
+            int loLat = Integer.MAX_VALUE;
+            int hiLat = Integer.MIN_VALUE;
+            int loLon = Integer.MAX_VALUE;
+            int hiLon = Integer.MIN_VALUE;
+            for (Point vertex : vertices) {
+                loLat = Math.min(loLat, vertex.getLatitude());
+                hiLat = Math.max(hiLat, vertex.getLatitude());
+                loLon = Math.min(loLon, vertex.getLongitude());
+                hiLon = Math.max(hiLon, vertex.getLongitude());
+            }
+            minLat = loLat;
+            maxLat = hiLat;
+            minLon = loLon;
+            maxLon = hiLon;
+
+            int[] lowLat = new int[n];
+            int[] highLat = new int[n];
+            double[] lowLon = new double[n];
+            double[] slope = new double[n];
+            int edges = 0;
+            for (int i = 0; i < n; i++) {
+                Point a = vertices.get(i);
+                Point b = vertices.get(i + 1 == n ? 0 : i + 1);
+                if (a.getLatitude() == b.getLatitude()) {
+                    // Never crossed by a ray of constant latitude.
+                    continue;
+                }
+                Point low = a.getLatitude() < b.getLatitude() ? a : b;
+                Point high = low == a ? b : a;
+                lowLat[edges] = low.getLatitude();
+                highLat[edges] = high.getLatitude();
+                lowLon[edges] = low.getLongitude();
+                slope[edges] = ((double) high.getLongitude() - low.getLongitude())
+                        / ((double) high.getLatitude() - low.getLatitude());
+                edges++;
+            }
+            edgeLowLat = Arrays.copyOf(lowLat, edges);
+            edgeHighLat = Arrays.copyOf(highLat, edges);
+            edgeLowLon = Arrays.copyOf(lowLon, edges);
+            edgeSlope = Arrays.copyOf(slope, edges);
+
+            bands = bandCount(edgeLowLat, edgeHighLat, minLat, maxLat);
+            bandHeight = bandHeight(minLat, maxLat, bands);
+            bandStart = new int[bands + 1];
+            for (int e = 0; e < edges; e++) {
+                for (int b = band(edgeLowLat[e]), last = band(edgeHighLat[e]); b <= last; b++) {
+                    bandStart[b + 1]++;
+                }
+            }
+            for (int b = 0; b < bands; b++) {
+                bandStart[b + 1] += bandStart[b];
+            }
+            bandEdges = new int[bandStart[bands]];
+            int[] next = Arrays.copyOf(bandStart, bands);
+            for (int e = 0; e < edges; e++) {
+                for (int b = band(edgeLowLat[e]), last = band(edgeHighLat[e]); b <= last; b++) {
+                    bandEdges[next[b]++] = e;
+                }
+            }
+        }
+
+        /**
+         * Picks up to one band per edge, at most {@value #MAX_BANDS}, but halves that while the edges
+         * would be copied into more than {@value #MAX_ENTRIES_PER_EDGE} bands on average, so polygons
+         * of long edges, like a zig-zag spanning the whole height, take memory linear in their edges.
+         */
+        private static int bandCount(int[] lowLat, int[] highLat, int minLat, int maxLat) {
+            int edges = lowLat.length;
+            int bands = Math.max(1, Math.min(edges, MAX_BANDS));
+            while (bands > 1) {
+                double height = bandHeight(minLat, maxLat, bands);
+                long entries = 0;
+                for (int e = 0; e < edges; e++) {
+                    entries += band(highLat[e], minLat, height, bands) - band(lowLat[e], minLat, height, bands) + 1;
+                }
+                if (entries <= (long) MAX_ENTRIES_PER_EDGE * edges) {
+                    break;
+                }
+                bands /= 2;
+            }
+            return bands;
+        }
+
+        private static double bandHeight(int minLat, int maxLat, int bands) {
+            return ((double) maxLat - minLat + 1) / bands;
+        }
+
+        private static int band(int lat, int minLat, double bandHeight, int bands) {
+            return Math.min(bands - 1, (int) (((double) lat - minLat) / bandHeight));
+        }
+
+        private int band(int lat) {
+            return band(lat, minLat, bandHeight, bands);
+        }
+
+        boolean contains(int lat, int lon) {
+            if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon) {
+                return false;
+            }
+            boolean inside = false;
+            int band = band(lat);
+            for (int k = bandStart[band], end = bandStart[band + 1]; k < end; k++) {
+                int e = bandEdges[k];
+                if (lat >= edgeLowLat[e] && lat < edgeHighLat[e]
+                        && lon < edgeLowLon[e] + ((double) lat - edgeLowLat[e]) * edgeSlope[e]) {
+                    inside = !inside;
+                }
+            }
+            return inside;
+        }
+    }
+}
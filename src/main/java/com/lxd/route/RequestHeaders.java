@@ -0,0 +1,42 @@
+package com.lxd.route;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/**
+ * Makes the request headers of a call available to the service methods, which only see messages,
+ * through the gRPC {@link Context} of the call.
+ */
+final class RequestHeaders implements ServerInterceptor {
+    private static final Context.Key<Metadata> HEADERS = Context.key("routeguide-request-headers");
+    private static final Metadata EMPTY = new Metadata();
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        return Contexts.interceptCall(Context.current().withValue(HEADERS, headers), call, headers, next);
+    }
+
+    /** Headers of the call being handled, or none outside of one. */
+    static Metadata current() {
+        Metadata headers = HEADERS.get();
+        return headers != null ? headers : EMPTY;
+    }
+
+    /** Value of an integer header of the current call, {@code defaultValue} if absent or malformed. */
+    static long getLong(Metadata.Key<String> key, long defaultValue) {
+        String value = current().get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
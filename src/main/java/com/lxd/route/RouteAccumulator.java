@@ -0,0 +1,91 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Point;
+import com.lxd.grpcl.RouteSummary;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running totals of a recorded route, updated in constant time and space per point, so routes
+ * streamed for hours need no buffering.
+ *
+ * <p>Besides the totals since the start, it keeps those at the last {@link #window()} call, so the
+ * statistics of the points since then are a subtraction away. Counts are {@code long}s and the
+ * distance a {@code double}; the summaries, whose fields are 32 bit, clamp them to
+ * {@link Integer#MAX_VALUE}.</p>
+ *
+ * <p>{@code RecordRoute} has always summed the haversine distance of each hop in whole meters, and
+ * an {@linkplain #RouteAccumulator(boolean) exact} accumulator keeps doing so, so existing clients
+ * see the same totals. Live statistics sum the unrounded {@link GeoDistance#fast} approximation.</p>
+ *
+ * <p>Not thread safe.</p>
+ */
+final class RouteAccumulator {
+    private final long startNanos = System.nanoTime();
+    private long pointCount;
+    private long featureCount;
+    /** Meters. */
+    private double distance;
+    private final boolean exact;
+    private final GeoDistance.Track track;
+
+    private long windowStartNanos = startNanos;
+    private long windowPointCount;
+    private long windowFeatureCount;
+    private double windowDistance;
+
+    /** Sums whole meters of haversine distance per hop if {@code exact}, fast approximations otherwise. */
+    RouteAccumulator(boolean exact) {
+        this.exact = exact;
+        this.track = new GeoDistance.Track(!exact);
+    }
+
+    /** Adds the next point of the route, {@code feature} telling whether a feature is there. */
+    void add(Point point, boolean feature) {
+        pointCount++;
+        if (feature) {
+            featureCount++;
+        }
+        // For each point after the first, add the incremental distance from the previous point.
+        double hop = track.moveTo(point);
+        distance += exact ? Math.floor(hop) : hop;
+    }
+
+    /** Points added since the last {@link #window()}. */
+    long windowPointCount() {
+        return pointCount - windowPointCount;
+    }
+
+    /** Summary of the whole route so far. */
+    RouteSummary total() {
+        return summary(pointCount, featureCount, distance, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Summary of the points added since the previous call, or since the start for the first one. The
+     * distance includes the segment joining the window to the previous one.
+     */
+    RouteSummary window() {
+        long now = System.nanoTime();
+        RouteSummary window = summary(pointCount - windowPointCount, featureCount - windowFeatureCount,
+                distance - windowDistance, now - windowStartNanos);
+        windowStartNanos = now;
+        windowPointCount = pointCount;
+        windowFeatureCount = featureCount;
+        windowDistance = distance;
+        return window;
+    }
+
+    private static RouteSummary summary(long points, long features, double distance, long elapsedNanos) {
+        return RouteSummary.newBuilder()
+                .setPointCount(clamp(points))
+                .setFeatureCount(clamp(features))
+                .setDistance(clamp((long) distance))
+                .setElapsedTime(clamp(TimeUnit.NANOSECONDS.toSeconds(elapsedNanos)))
+                .build();
+    }
+
+    private static int clamp(long value) {
+        return (int) Math.min(value, Integer.MAX_VALUE);
+    }
+}
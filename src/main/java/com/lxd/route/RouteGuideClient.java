@@ -4,20 +4,30 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.protobuf.Message;
 import com.lxd.grpcl.*;
 import io.grpc.*;
+import io.grpc.stub.MetadataUtils;
 import io.grpc.stub.StreamObserver;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class RouteGuideClient {
 
     private static final Logger logger = Logger.getLogger(RouteGuideServer.class.getName());
+    /** Retries of a {@code ListFeaturesPage} call failing with {@code UNAVAILABLE}, and the first delay. */
+    private static final int PAGE_RETRIES = 3;
+    private static final long PAGE_RETRY_DELAY_MILLIS = 200;
 
     private final RoutedGuideGrpc.RoutedGuideBlockingStub blockingStub;
 
@@ -27,6 +37,8 @@ public class RouteGuideClient {
 
     private TestHelper testHelper;
 
+    private FeatureCache featureCache;
+
     public RouteGuideClient(Channel channel) {
         this.blockingStub = RoutedGuideGrpc.newBlockingStub(channel);
         this.asyncStub = RoutedGuideGrpc.newStub(channel);
@@ -40,18 +52,23 @@ public class RouteGuideClient {
 
         Point request = Point.newBuilder().setLatitude(lat).setLongitude(lon).build();
 
-        Feature feature;
-        try {
-            feature = blockingStub.getFeature(request);
-            if (testHelper != null) {
-                testHelper.onMessage(feature);
+        Feature feature = featureCache == null ? null : featureCache.get(lat, lon);
+        if (feature == null) {
+            try {
+                feature = blockingStub.getFeature(request);
+                if (testHelper != null) {
+                    testHelper.onMessage(feature);
+                }
+            } catch (StatusRuntimeException e) {
+                warning("RPC failed: {0}", e.getStatus());
+                if (testHelper != null) {
+                    testHelper.onRpcError(e);
+                }
+                return;
             }
-        } catch (StatusRuntimeException e) {
-            warning("RPC failed: {0}", e.getStatus());
-            if (testHelper != null) {
-                testHelper.onRpcError(e);
+            if (featureCache != null) {
+                featureCache.put(lat, lon, feature);
             }
-            return;
         }
         if (RouteGuideUtil.exists(feature)) {
             info("Found feature called \"{0}\" at {1}, {2}",
@@ -65,6 +82,157 @@ public class RouteGuideClient {
         }
     }
 
+    /**
+     * Blocking batch lookup. Gets the feature at every point of {@code points}, in order, sending them
+     * {@code batchSize} points per {@code GetFeatures} call instead of one call per point.
+     *
+     * @return the features found, or unnamed features for the points without one
+     * @throws StatusRuntimeException if a call fails
+     */
+    public List<Feature> getFeatures(List<Point> points, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        info("*** GetFeatures: {0} points in batches of {1}", points.size(), batchSize);
+        List<Feature> features = new ArrayList<>(points.size());
+        for (int from = 0; from < points.size(); from += batchSize) {
+            PointBatch request = PointBatch.newBuilder()
+                    .addAllPoint(points.subList(from, Math.min(from + batchSize, points.size())))
+                    .build();
+            FeatureBatch response;
+            try {
+                response = blockingStub.getFeatures(request);
+            } catch (StatusRuntimeException e) {
+                warning("RPC failed: {0}", e.getStatus());
+                if (testHelper != null) {
+                    testHelper.onRpcError(e);
+                }
+                throw e;
+            }
+            if (testHelper != null) {
+                testHelper.onMessage(response);
+            }
+            features.addAll(response.getFeatureList());
+        }
+        int found = 0;
+        for (Feature feature : features) {
+            if (RouteGuideUtil.exists(feature)) {
+                found++;
+            }
+        }
+        info("Found {0} features at {1} points", found, points.size());
+        return features;
+    }
+
+    /**
+     * Bidirectional streaming lookup. Streams {@code points} to {@code StreamFeatures}, keeping at most
+     * {@code window} points without an answer, and passes every feature received to {@code consumer}.
+     * Unless {@code ordered}, features arrive in whatever order the server resolves them and are
+     * matched to points by location. Blocks until every point is answered.
+     *
+     * @return the number of features received
+     * @throws StatusRuntimeException if the call fails
+     */
+    public long streamFeatures(Iterator<Point> points, int window, boolean ordered, final Consumer<Feature> consumer)
+            throws InterruptedException {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        info("*** StreamFeatures: window of {0}, {1}", window, ordered ? "ordered" : "unordered");
+        final Semaphore unanswered = new Semaphore(window);
+        final CountDownLatch finishLatch = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicLong received = new AtomicLong();
+        RoutedGuideGrpc.RoutedGuideStub stub = asyncStub;
+        if (!ordered) {
+            Metadata headers = new Metadata();
+            headers.put(RouteGuideUtil.ORDER_HEADER, "unordered");
+            stub = stub.withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+        }
+        StreamObserver<Point> requestObserver = stub.streamFeatures(new StreamObserver<Feature>() {
+            @Override
+            public void onNext(Feature feature) {
+                received.incrementAndGet();
+                unanswered.release();
+                consumer.accept(feature);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                warning("StreamFeatures Failed: {0}", Status.fromThrowable(throwable));
+                if (testHelper != null) {
+                    testHelper.onRpcError(throwable);
+                }
+                failure.set(throwable);
+                // Unblock the sender.
+                unanswered.release(window);
+                finishLatch.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+                info("Finished StreamFeatures with {0} features", received.get());
+                finishLatch.countDown();
+            }
+        });
+        try {
+            while (points.hasNext()) {
+                unanswered.acquire();
+                if (failure.get() != null) {
+                    break;
+                }
+                requestObserver.onNext(points.next());
+            }
+        } catch (RuntimeException | InterruptedException e) {
+            // Cancel RPC
+            requestObserver.onError(e);
+            throw e;
+        }
+        if (failure.get() == null) {
+            requestObserver.onCompleted();
+        }
+        finishLatch.await();
+        if (failure.get() != null) {
+            throw Status.fromThrowable(failure.get()).asRuntimeException();
+        }
+        return received.get();
+    }
+
+    /**
+     * Blocking unary call example. Finds the {@code k} features nearest to a location, within
+     * {@code maxDistance} meters unless 0, and prints them nearest first.
+     *
+     * @return the features found
+     */
+    public List<Feature> findNearest(int lat, int lon, int k, int maxDistance) {
+        info("*** FindNearest: lat={0} lon={1} k={2} maxDistance={3}", lat, lon, k, maxDistance);
+        NearestRequest request = NearestRequest.newBuilder()
+                .setLocation(Point.newBuilder().setLatitude(lat).setLongitude(lon))
+                .setK(k)
+                .setMaxDistance(maxDistance)
+                .build();
+        FeatureBatch response;
+        try {
+            response = blockingStub.findNearest(request);
+            if (testHelper != null) {
+                testHelper.onMessage(response);
+            }
+        } catch (StatusRuntimeException e) {
+            warning("RPC failed: {0}", e.getStatus());
+            if (testHelper != null) {
+                testHelper.onRpcError(e);
+            }
+            return new ArrayList<>();
+        }
+        for (Feature feature : response.getFeatureList()) {
+            info("Found feature called \"{0}\" at {1}, {2}, {3} meters away", feature.getName(),
+                    RouteGuideUtil.getLatitude(feature.getLocation()),
+                    RouteGuideUtil.getLongitude(feature.getLocation()),
+                    RouteGuideUtil.calcDistance(request.getLocation(), feature.getLocation()));
+        }
+        return response.getFeatureList();
+    }
+
     public void listFeatures(int lowLat, int lowLon, int hiLat, int hiLon) {
         info("*** ListFeatures: lowLat={0} lowLon={1} hiLat={2} hiLon={3}", lowLat, lowLon, hiLat, hiLon);
         Rectangle request = Rectangle.newBuilder()
@@ -89,6 +257,139 @@ public class RouteGuideClient {
         }
     }
 
+    /**
+     * Counts the features inside a rectangle, then how they spread over a grid of {@code latCells} by
+     * {@code lonCells} cells, without receiving any of them.
+     */
+    public void countFeatures(int lowLat, int lowLon, int hiLat, int hiLon, int latCells, int lonCells) {
+        info("*** CountFeatures: lowLat={0} lowLon={1} hiLat={2} hiLon={3}", lowLat, lowLon, hiLat, hiLon);
+        Rectangle rectangle = Rectangle.newBuilder()
+                .setLo(Point.newBuilder().setLatitude(lowLat).setLongitude(lowLon))
+                .setHi(Point.newBuilder().setLatitude(hiLat).setLongitude(hiLon))
+                .build();
+        try {
+            FeatureCount count = blockingStub.countFeatures(rectangle);
+            info("{0} features", count.getCount());
+            Histogram histogram = blockingStub.featureHistogram(HistogramRequest.newBuilder()
+                    .setRectangle(rectangle).setLatCells(latCells).setLonCells(lonCells).build());
+            for (int row = histogram.getLatCells() - 1; row >= 0; row--) {
+                int from = row * histogram.getLonCells();
+                info("{0}", histogram.getCountList().subList(from, from + histogram.getLonCells()));
+            }
+            if (testHelper != null) {
+                testHelper.onMessage(count);
+                testHelper.onMessage(histogram);
+            }
+        } catch (StatusRuntimeException e) {
+            warning("RPC failed: {0}", e.getStatus());
+            if (testHelper != null) {
+                testHelper.onRpcError(e);
+            }
+        }
+    }
+
+    /**
+     * Lists the features inside a rectangle page by page, {@code pageSize} features per
+     * {@code ListFeaturesPage} call. A page that fails because the server is unavailable is asked for
+     * again with the same token, up to three times after exponentially growing, jittered delays
+     * starting at {@value #PAGE_RETRY_DELAY_MILLIS} ms, so the listing resumes where it stopped.
+     *
+     * @return the number of features listed
+     * @throws StatusRuntimeException if a page cannot be fetched
+     */
+    public long listFeaturesPaged(int lowLat, int lowLon, int hiLat, int hiLon, int pageSize) {
+        info("*** ListFeaturesPage: lowLat={0} lowLon={1} hiLat={2} hiLon={3} pageSize={4}",
+                lowLat, lowLon, hiLat, hiLon, pageSize);
+        ListFeaturesRequest.Builder request = ListFeaturesRequest.newBuilder()
+                .setRectangle(Rectangle.newBuilder()
+                        .setLo(Point.newBuilder().setLatitude(lowLat).setLongitude(lowLon))
+                        .setHi(Point.newBuilder().setLatitude(hiLat).setLongitude(hiLon)))
+                .setPageSize(pageSize);
+        long count = 0;
+        int pages = 0;
+        int failures = 0;
+        while (true) {
+            FeaturePage page;
+            try {
+                page = blockingStub.listFeaturesPage(request.build());
+            } catch (StatusRuntimeException e) {
+                warning("RPC failed: {0}", e.getStatus());
+                if (testHelper != null) {
+                    testHelper.onRpcError(e);
+                }
+                if (e.getStatus().getCode() != Status.Code.UNAVAILABLE || ++failures > PAGE_RETRIES) {
+                    throw e;
+                }
+                long delay = PAGE_RETRY_DELAY_MILLIS << (failures - 1);
+                try {
+                    Thread.sleep(delay / 2 + random.nextInt((int) delay / 2 + 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                continue;
+            }
+            failures = 0;
+            pages++;
+            count += page.getFeatureCount();
+            if (testHelper != null) {
+                testHelper.onMessage(page);
+            }
+            if (page.getNextPageToken().isEmpty()) {
+                break;
+            }
+            request.setPageToken(page.getNextPageToken());
+        }
+        info("Listed {0} features in {1} pages", count, pages);
+        return count;
+    }
+
+    /** Lists the features inside {@code region}, each once. */
+    public void listFeaturesInPolygon(Region region) {
+        info("*** ListFeaturesInPolygon: {0} polygons, {1} rectangles", region.getPolygonCount(),
+                region.getRectangleCount());
+        try {
+            Iterator<Feature> features = blockingStub.listFeaturesInPolygon(region);
+            for (int i = 1; features.hasNext(); i++) {
+                Feature feature = features.next();
+                info("Result #" + i + ": {0}", feature.getName());
+                if (testHelper != null) {
+                    testHelper.onMessage(feature);
+                }
+            }
+        } catch (StatusRuntimeException e) {
+            warning("RPC failed: {0}", e.getStatus());
+            if (testHelper != null) {
+                testHelper.onRpcError(e);
+            }
+        }
+    }
+
+    /** Lists the features within {@code radius} meters of a location, nearest first. */
+    public void listFeaturesInRadius(int lat, int lon, int radius) {
+        info("*** ListFeaturesInRadius: lat={0} lon={1} radius={2}", lat, lon, radius);
+        Circle request = Circle.newBuilder()
+                .setCenter(Point.newBuilder().setLatitude(lat).setLongitude(lon).build())
+                .setRadius(radius)
+                .build();
+        try {
+            Iterator<Feature> features = blockingStub.listFeaturesInRadius(request);
+            for (int i = 1; features.hasNext(); i++) {
+                Feature feature = features.next();
+                info("Result #" + i + ": {0}, {1} meters away", feature.getName(),
+                        RouteGuideUtil.calcDistance(request.getCenter(), feature.getLocation()));
+                if (testHelper != null) {
+                    testHelper.onMessage(feature);
+                }
+            }
+        } catch (StatusRuntimeException e) {
+            warning("RPC failed: {0}", e.getStatus());
+            if (testHelper != null) {
+                testHelper.onRpcError(e);
+            }
+        }
+    }
+
     public void recordRoute(List<Feature> features, int numPoints) throws InterruptedException {
         info("*** RecordRoute");
         final CountDownLatch finshLatch = new CountDownLatch(1);
@@ -147,6 +448,72 @@ public class RouteGuideClient {
         }
     }
 
+    /**
+     * Records a route of {@code numPoints} points randomly selected from {@code features}, logging the
+     * statistics the server reports every {@code reportPoints} points and every {@code reportMillis}
+     * milliseconds while it is recorded (0 disables either).
+     */
+    public void recordRouteLive(List<Feature> features, int numPoints, long reportPoints, long reportMillis)
+            throws InterruptedException {
+        info("*** RecordRouteLive");
+        final CountDownLatch finishLatch = new CountDownLatch(1);
+        Metadata headers = new Metadata();
+        headers.put(RouteGuideUtil.REPORT_POINTS_HEADER, Long.toString(reportPoints));
+        headers.put(RouteGuideUtil.REPORT_MILLIS_HEADER, Long.toString(reportMillis));
+        StreamObserver<Point> requestObserver = asyncStub
+                .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers))
+                .recordRouteLive(new StreamObserver<RouteStats>() {
+                    @Override
+                    public void onNext(RouteStats stats) {
+                        RouteSummary total = stats.getTotal();
+                        RouteSummary window = stats.getWindow();
+                        info("{0} {1} points, {2} features, {3} meters in {4} seconds; since last report {5} points, "
+                                        + "{6} features, {7} meters", stats.getLast() ? "Finished trip with" : "So far",
+                                total.getPointCount(), total.getFeatureCount(), total.getDistance(),
+                                total.getElapsedTime(), window.getPointCount(), window.getFeatureCount(),
+                                window.getDistance());
+                        if (testHelper != null) {
+                            testHelper.onMessage(stats);
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        warning("RecordRouteLive Failed: {0}", Status.fromThrowable(throwable));
+                        if (testHelper != null) {
+                            testHelper.onRpcError(throwable);
+                        }
+                        finishLatch.countDown();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        info("Finished RecordRouteLive");
+                        finishLatch.countDown();
+                    }
+                });
+        try {
+            for (int i = 0; i < numPoints; ++i) {
+                requestObserver.onNext(features.get(random.nextInt(features.size())).getLocation());
+                Thread.sleep(random.nextInt(50));
+                if (finishLatch.getCount() == 0) {
+                    // RPC completed or errored before we finished sending.
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            // Cancel RPC
+            requestObserver.onError(e);
+            throw e;
+        }
+
+        // Mark the end of requests.
+        requestObserver.onCompleted();
+        if (!finishLatch.await(1, TimeUnit.MINUTES)) {
+            warning("recordRouteLive can not finish within 1 minutes.");
+        }
+    }
+
     public CountDownLatch routeChat() {
         info("*** ReoutChat");
         final CountDownLatch finishLatch = new CountDownLatch(1);
@@ -226,6 +593,14 @@ public class RouteGuideClient {
         void onRpcError(Throwable exception);
     }
 
+    /**
+     * Answers {@link #getFeature} from {@code featureCache} when it can, filling it with the results of
+     * the calls it still makes. {@code null}, the default, disables caching.
+     */
+    public void setFeatureCache(FeatureCache featureCache) {
+        this.featureCache = featureCache;
+    }
+
     @VisibleForTesting
     public void setRandom(Random random) {
         this.random = random;
@@ -236,15 +611,21 @@ public class RouteGuideClient {
         this.testHelper = testHelper;
     }
 
-    public static void main(String[] args) throws InterruptedException{
+    public static void main(String[] args) throws Exception {
         String target = "localhost:8980";
         if (args.length > 0) {
             if ("--help".equals(args[0])) {
                 System.err.println("Usage: [target]");
+                System.err.println("       --load [options]");
                 System.err.println("");
                 System.err.println("  target The server to connect to.Defaults to " + target);
+                System.err.println("  --load Generates load instead, see --load --help");
                 System.exit(1);
             }
+            if ("--load".equals(args[0])) {
+                LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+                return;
+            }
             target = args[0];
         }
         List<Feature> features;
@@ -263,12 +644,57 @@ public class RouteGuideClient {
             // Feature missing.
             client.getFeature(0, 0);
 
+            // Look up the first hundred features in one call.
+            List<Point> points = new ArrayList<>();
+            for (Feature feature : features.subList(0, Math.min(100, features.size()))) {
+                points.add(feature.getLocation());
+            }
+            client.getFeatures(points, 100);
+
+            // Stream the same points, 16 at a time.
+            final AtomicLong found = new AtomicLong();
+            client.streamFeatures(points.iterator(), 16, true, new Consumer<Feature>() {
+                @Override
+                public void accept(Feature feature) {
+                    if (RouteGuideUtil.exists(feature)) {
+                        found.incrementAndGet();
+                    }
+                }
+            });
+            client.info("Streamed lookups found {0} features", found.get());
+
+            // The five features nearest to 40.5, -74.5, within 50 km.
+            client.findNearest(405000000, -745000000, 5, 50000);
+
+            // How many features lie between 40, -75 and 42, -73, and how they spread over a 4 by 4 grid.
+            client.countFeatures(400000000, -750000000, 420000000, -730000000, 4, 4);
+
+            // The features between 40, -75 and 42, -73, 20 at a time.
+            client.listFeaturesPaged(400000000, -750000000, 420000000, -730000000, 20);
+
+            // Features in the triangle 40, -75 / 42, -75 / 41, -73, or in the rectangle 40, -74 to 40.5, -73.5.
+            client.listFeaturesInPolygon(Region.newBuilder()
+                    .addPolygon(Polygon.newBuilder()
+                            .addVertex(Point.newBuilder().setLatitude(400000000).setLongitude(-750000000))
+                            .addVertex(Point.newBuilder().setLatitude(420000000).setLongitude(-750000000))
+                            .addVertex(Point.newBuilder().setLatitude(410000000).setLongitude(-730000000)))
+                    .addRectangle(Rectangle.newBuilder()
+                            .setLo(Point.newBuilder().setLatitude(400000000).setLongitude(-740000000))
+                            .setHi(Point.newBuilder().setLatitude(405000000).setLongitude(-735000000)))
+                    .build());
+
+            // Features within 10 km of 40.5, -74.5.
+            client.listFeaturesInRadius(405000000, -745000000, 10000);
+
             // Looking for features between 40, -75 and 42, -73.
             client.listFeatures(400000000, -750000000, 420000000, -730000000);
 
             // Record a few randomly selected points from the features file.
             client.recordRoute(features, 10);
 
+            // Record a longer route, with statistics every 50 points and every second.
+            client.recordRouteLive(features, 200, 50, 1000);
+
             // Send and receive some notes.
             CountDownLatch finishLatch = client.routeChat();
 
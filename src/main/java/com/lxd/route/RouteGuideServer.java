@@ -1,19 +1,31 @@
 package com.lxd.route;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lxd.grpcl.*;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,25 +35,148 @@ public class RouteGuideServer {
 
     private final int port;
     private final Server server;
+    private final RouteGuideService service;
+    /** Threading resources owned by this server, if any. */
+    private final ServerOptions options;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final List<MetricsExporter> exporters = new CopyOnWriteArrayList<>();
+    private final ExecutorService reloadExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("feature-reload-%d").build());
+    /** Runs the timers of streaming calls. */
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("routeguide-timer-%d").build());
 
     public RouteGuideServer(int port) throws IOException {
         this(port, RouteGuideUtil.getDefaultFeaturesFile());
     }
 
-    /** Create a RouteGuide server listening on {@code port} using {@code featureFile} database. */
+    /**
+     * Create a RouteGuide server listening on {@code port} using {@code featureFile} database, with
+     * the threading model configured by {@link ServerOptions#fromSystemProperties()}.
+     */
     public RouteGuideServer(int port, URL featureFile) throws IOException {
-        this(ServerBuilder.forPort(port), port, RouteGuideUtil.parseFeatures(featureFile));
+        this(ServerOptions.fromSystemProperties(), port, loadFeatures(featureFile));
+    }
+
+    /**
+     * Create a RouteGuide server listening on {@code port} with the threading model of {@code options}
+     * and a columnar store as data. The server closes {@code options} once stopped.
+     */
+    public RouteGuideServer(ServerOptions options, int port, FeatureStore features) {
+        this(options.newServerBuilder(port), port, IndexedFeatureStore.build(features), options);
+    }
+
+    /**
+     * Create a RouteGuide server listening on {@code port} with the threading model of {@code options}
+     * and a memory-mapped binary feature database as data. The server closes {@code options} once
+     * stopped.
+     */
+    public RouteGuideServer(ServerOptions options, int port, Path databaseFile) throws IOException {
+        this(options.newServerBuilder(port), port, mapDatabase(databaseFile), options);
     }
 
     /** Create a RouteGuide server using serverBuilder as a base and features as data. */
     public RouteGuideServer(ServerBuilder<?> serverBuilder, int port, Collection<Feature> features) {
+        this(serverBuilder, port, ColumnarFeatureStore.of(features));
+    }
+
+    /** Create a RouteGuide server using serverBuilder as a base and a columnar store as data. */
+    public RouteGuideServer(ServerBuilder<?> serverBuilder, int port, FeatureStore features) {
+        this(serverBuilder, port, IndexedFeatureStore.build(features), null);
+    }
+
+    /**
+     * Create a RouteGuide server using serverBuilder as a base and a binary feature database written by
+     * {@link FeatureDatabaseFile} as data. The file is memory-mapped rather than read.
+     */
+    public RouteGuideServer(ServerBuilder<?> serverBuilder, int port, Path databaseFile) throws IOException {
+        this(serverBuilder, port, mapDatabase(databaseFile), null);
+    }
+
+    private RouteGuideServer(ServerBuilder<?> serverBuilder, int port, IndexedFeatureStore features,
+                             ServerOptions options) {
         this.port = port;
-        this.server = serverBuilder.addService(new RouteGuideService(features)).build();
+        this.options = options;
+        this.service = new RouteGuideService(features, timer);
+        this.server = serverBuilder.addService(ServerInterceptors.intercept(service,
+                new RequestHeaders(), metrics)).build();
+        if (options != null && options.metricsPort() >= 0) {
+            exporters.add(new PrometheusHttpExporter(options.metricsPort()));
+        }
     }
 
-    /** Start serving requests. */
+    private static FeatureStore loadFeatures(final URL featureFile) throws IOException {
+        long start = System.nanoTime();
+        ColumnarFeatureStore.Builder features = new ColumnarFeatureStore.Builder();
+        new StreamingFeatureLoader(1000000, new StreamingFeatureLoader.ProgressListener() {
+            @Override
+            public void onProgress(long count, long bytesRead) {
+                logger.info("Loaded " + count + " features (" + bytesRead / 1024 + " KiB) from " + featureFile);
+            }
+        }).load(featureFile, features);
+        logger.info("Loaded features in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return features.build();
+    }
+
+    /**
+     * Loads {@code databaseFile} in the background, a JSON database if its name ends with ".json" and a
+     * binary one otherwise, and swaps it in once it is indexed. Calls already in progress finish on the
+     * features they started with; calls made after the returned future completes see the new ones.
+     */
+    public CompletableFuture<Void> reloadFeatures(final Path databaseFile) {
+        return CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    IndexedFeatureStore features = databaseFile.toString().endsWith(".json")
+                            ? IndexedFeatureStore.build(loadFeatures(databaseFile.toUri().toURL()))
+                            : mapDatabase(databaseFile);
+                    service.publish(features);
+                    logger.info("Now serving " + features.features.size() + " features from " + databaseFile);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to reload features from " + databaseFile, e);
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }, reloadExecutor);
+    }
+
+    private static IndexedFeatureStore mapDatabase(Path databaseFile) throws IOException {
+        long start = System.nanoTime();
+        IndexedFeatureStore features = FeatureDatabaseFile.map(databaseFile);
+        logger.info("Mapped " + features.features.size() + " features from " + databaseFile + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return features;
+    }
+
+    /** Per-method call metrics of this server. */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Publishes the metrics of this server through {@code exporter} once started, until stopped. An
+     * exporter serving them over HTTP is added when the {@link ServerOptions} of the server set a
+     * {@link ServerOptions#metricsPort(int) metrics port}.
+     */
+    public void addExporter(MetricsExporter exporter) {
+        exporters.add(exporter);
+    }
+
+    /**
+     * Start serving requests. The exporters start first, so if one fails, for instance because its
+     * port is taken, nothing is left running.
+     */
     public void start() throws IOException {
-        server.start();
+        try {
+            for (MetricsExporter exporter : exporters) {
+                exporter.start(metrics);
+            }
+            server.start();
+        } catch (IOException | RuntimeException e) {
+            closeExporters();
+            throw e;
+        }
         logger.info("Server started, listening on " + port);
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
@@ -58,11 +193,32 @@ public class RouteGuideServer {
         });
     }
 
+    /** Port the server is bound to, useful after starting it on port 0. */
+    public int getPort() {
+        return server.getPort();
+    }
+
     /** Stop serving requests and shutdown resources. */
     public void stop() throws InterruptedException {
+        reloadExecutor.shutdownNow();
+        timer.shutdownNow();
+        closeExporters();
         if (server != null) {
             server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
         }
+        if (options != null) {
+            options.close();
+        }
+    }
+
+    private void closeExporters() {
+        for (MetricsExporter exporter : exporters) {
+            try {
+                exporter.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to close metrics exporter", e);
+            }
+        }
     }
 
     /**
@@ -75,10 +231,29 @@ public class RouteGuideServer {
     }
 
     /**
-     * Main method.
+     * Main method. Takes either the path of a binary feature database or the paths of one or more JSON
+     * feature database shards, loaded in parallel, as optional arguments. Otherwise serves the bundled
+     * JSON database.
      */
     public static void main(String[] args) throws Exception{
-        RouteGuideServer server = new RouteGuideServer(8980);
+        RouteGuideServer server;
+        ServerOptions options = ServerOptions.fromSystemProperties();
+        if (args.length == 0) {
+            server = new RouteGuideServer(options, 8980, loadFeatures(RouteGuideUtil.getDefaultFeaturesFile()));
+        } else if (args[0].endsWith(".json")) {
+            List<Path> shards = new ArrayList<>();
+            for (String arg : args) {
+                shards.add(Paths.get(arg));
+            }
+            ParallelFeatureLoader loader = new ParallelFeatureLoader();
+            try {
+                server = new RouteGuideServer(options.newServerBuilder(8980), 8980, loader.loadIndexed(shards), options);
+            } finally {
+                loader.shutdown();
+            }
+        } else {
+            server = new RouteGuideServer(options, 8980, Paths.get(args[0]));
+        }
         server.start();
         server.blockUntiShutdown();
     }
@@ -89,12 +264,27 @@ public class RouteGuideServer {
      * <p>See route_guide.proto for details of the methods.</p>
      */
     private static class RouteGuideService extends RoutedGuideGrpc.RoutedGuideImplBase {
+        /** Most features a {@code FindNearest} call may ask for. */
+        static final int MAX_NEAREST = 10000;
+        /** Most cells a {@code FeatureHistogram} call may ask for. */
+        static final int MAX_HISTOGRAM_CELLS = 65536;
+
+        /**
+         * Features currently served. Every call reads this once and keeps using what it read, so a
+         * reload never changes the features under a call in progress and the read path takes no lock.
+         */
+        private final AtomicReference<IndexedFeatureStore> snapshot;
+        private final RouteNoteStore routeNotes = RouteNoteStore.fromSystemProperties();
+        private final ScheduledExecutorService timer;
 
-        private final Collection<Feature> features;
-        private final ConcurrentMap<Point, List<RouteNote>> routeNotes = new ConcurrentHashMap<>();
+        public RouteGuideService(IndexedFeatureStore features, ScheduledExecutorService timer) {
+            this.snapshot = new AtomicReference<>(features);
+            this.timer = timer;
+        }
 
-        public RouteGuideService(Collection<Feature> features) {
-            this.features = features;
+        /** Replaces the features served to calls started from now on. */
+        void publish(IndexedFeatureStore features) {
+            snapshot.set(features);
         }
 
         /**
@@ -105,13 +295,68 @@ public class RouteGuideServer {
          */
         @Override
         public void getFeature(Point request, StreamObserver<Feature> responseObserver) {
-            responseObserver.onNext(checkFeature(request));
+            responseObserver.onNext(snapshot.get().checkFeature(request));
+            responseObserver.onCompleted();
+        }
+
+        /**
+         * Gets the {@link Feature} at every requested {@link Point}, in request order, like
+         * {@link #getFeature} would. All points are resolved against the same snapshot.
+         * @param request the requested locations.
+         * @param responseObserver the observer that will receive the features.
+         */
+        @Override
+        public void getFeatures(PointBatch request, StreamObserver<FeatureBatch> responseObserver) {
+            IndexedFeatureStore current = snapshot.get();
+            FeatureBatch.Builder response = FeatureBatch.newBuilder();
+            for (int i = 0; i < request.getPointCount(); i++) {
+                response.addFeature(current.checkFeature(request.getPoint(i)));
+            }
+            responseObserver.onNext(response.build());
             responseObserver.onCompleted();
         }
 
 
         /**
-         * Gets all features contained within the given bounding {@link Rectangle}.
+         * Streams the {@link Feature} at every received {@link Point}, resolved in micro-batches on
+         * the common fork-join pool, see {@link FeatureLookupStream}.
+         * @param responseObserver the observer that will receive the features.
+         * @return the observer of the requested locations.
+         */
+        @Override
+        public StreamObserver<Point> streamFeatures(StreamObserver<Feature> responseObserver) {
+            return FeatureLookupStream.start(responseObserver, snapshot.get(), timer,
+                    ForkJoinPool.commonPool());
+        }
+
+        /**
+         * Gets the {@code k} named features nearest to the requested location by great-circle
+         * distance, nearest first, leaving out those farther than {@code max_distance} meters if set.
+         * @param request the location, number of features and distance limit.
+         * @param responseObserver the observer that will receive the features.
+         */
+        @Override
+        public void findNearest(NearestRequest request, StreamObserver<FeatureBatch> responseObserver) {
+            if (request.getK() <= 0 || request.getK() > MAX_NEAREST || request.getMaxDistance() < 0) {
+                responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("k must be between 1 and "
+                        + MAX_NEAREST + " and max_distance not negative").asRuntimeException());
+                return;
+            }
+            IndexedFeatureStore current = snapshot.get();
+            double maxMeters = request.getMaxDistance() == 0 ? Double.POSITIVE_INFINITY : request.getMaxDistance();
+            IntList nearest = current.nearestIndex().nearest(request.getLocation().getLatitude(),
+                    request.getLocation().getLongitude(), request.getK(), maxMeters);
+            FeatureBatch.Builder response = FeatureBatch.newBuilder();
+            for (int i = 0; i < nearest.size(); i++) {
+                response.addFeature(current.features.feature(nearest.get(i)));
+            }
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+        }
+
+        /**
+         * Gets all features contained within the given bounding {@link Rectangle}. Features are only
+         * sent while the client keeps up, see {@link FeatureStreamer}.
          * @param request the bounding rectangle for the requested features.
          * @param responseObserver the observer that will receive the features.
          */
@@ -122,39 +367,141 @@ public class RouteGuideServer {
             int top = Math.max(request.getLo().getLatitude(), request.getHi().getLatitude());
             int bottom = Math.min(request.getLo().getLatitude(), request.getHi().getLatitude());
 
-            for (Feature feature: features) {
-                if (!RouteGuideUtil.exists(feature)) {
-                    continue;
-                }
-                int lat = feature.getLocation().getLatitude();
-                int lon = feature.getLocation().getLongitude();
-                if (lon >= left && lon <= right && lat >= bottom && lat <= top) {
-                    responseObserver.onNext(feature);
+            IndexedFeatureStore current = snapshot.get();
+            IntList matches = new IntList();
+            current.spatialIndex.search(bottom, left, top, right, matches);
+            FeatureStreamer.start(responseObserver, current.features, matches);
+        }
+
+        /**
+         * Counts the features contained within the given bounding {@link Rectangle}, as
+         * {@link #listFeatures} would list them, from the counts kept by the spatial index.
+         * @param request the bounding rectangle.
+         * @param responseObserver the observer that will receive the count.
+         */
+        @Override
+        public void countFeatures(Rectangle request, StreamObserver<FeatureCount> responseObserver) {
+            int left = Math.min(request.getLo().getLongitude(), request.getHi().getLongitude());
+            int right = Math.max(request.getLo().getLongitude(), request.getHi().getLongitude());
+            int top = Math.max(request.getLo().getLatitude(), request.getHi().getLatitude());
+            int bottom = Math.min(request.getLo().getLatitude(), request.getHi().getLatitude());
+            int count = snapshot.get().spatialIndex.count(bottom, left, top, right);
+            responseObserver.onNext(FeatureCount.newBuilder().setCount(count).build());
+            responseObserver.onCompleted();
+        }
+
+        /**
+         * Counts the features in every cell of a grid dividing the requested {@link Rectangle} into
+         * {@code lat_cells} rows and {@code lon_cells} columns of (nearly) equal size. Every cell is
+         * counted by the spatial index like {@link #countFeatures}; no feature is materialized.
+         * @param request the rectangle and grid size.
+         * @param responseObserver the observer that will receive the counts.
+         */
+        @Override
+        public void featureHistogram(HistogramRequest request, StreamObserver<Histogram> responseObserver) {
+            int rows = request.getLatCells();
+            int columns = request.getLonCells();
+            if (rows <= 0 || columns <= 0 || (long) rows * columns > MAX_HISTOGRAM_CELLS) {
+                responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("lat_cells and lon_cells must be "
+                        + "positive, with at most " + MAX_HISTOGRAM_CELLS + " cells").asRuntimeException());
+                return;
+            }
+            Rectangle rectangle = request.getRectangle();
+            long left = Math.min(rectangle.getLo().getLongitude(), rectangle.getHi().getLongitude());
+            long right = Math.max(rectangle.getLo().getLongitude(), rectangle.getHi().getLongitude());
+            long top = Math.max(rectangle.getLo().getLatitude(), rectangle.getHi().getLatitude());
+            long bottom = Math.min(rectangle.getLo().getLatitude(), rectangle.getHi().getLatitude());
+            long latSpan = top - bottom + 1;
+            long lonSpan = right - left + 1;
+
+            SpatialIndex index = snapshot.get().spatialIndex;
+            Histogram.Builder histogram = Histogram.newBuilder().setLatCells(rows).setLonCells(columns);
+            for (int r = 0; r < rows; r++) {
+                // Cell bounds are inclusive; a cell narrower than one unit is empty.
+                long rowLow = bottom + latSpan * r / rows;
+                long rowHigh = bottom + latSpan * (r + 1) / rows - 1;
+                for (int c = 0; c < columns; c++) {
+                    long columnLow = left + lonSpan * c / columns;
+                    long columnHigh = left + lonSpan * (c + 1) / columns - 1;
+                    histogram.addCount(rowLow > rowHigh || columnLow > columnHigh ? 0
+                            : index.count((int) rowLow, (int) columnLow, (int) rowHigh, (int) columnHigh));
                 }
             }
+            responseObserver.onNext(histogram.build());
+            responseObserver.onCompleted();
+        }
+
+        /**
+         * Gets one page of the features contained within the requested {@link Rectangle}, see
+         * {@link FeaturePager}.
+         * @param request the rectangle, page size and token of the page.
+         * @param responseObserver the observer that will receive the page.
+         */
+        @Override
+        public void listFeaturesPage(ListFeaturesRequest request, StreamObserver<FeaturePage> responseObserver) {
+            FeaturePage page;
+            try {
+                page = FeaturePager.page(snapshot.get(), request);
+            } catch (StatusRuntimeException e) {
+                responseObserver.onError(e);
+                return;
+            }
+            responseObserver.onNext(page);
             responseObserver.onCompleted();
         }
 
+        /**
+         * Gets all features inside the given {@link Region}, each once, see {@link RegionSearch}.
+         * Features are only sent while the client keeps up.
+         * @param request the polygons and rectangles of the region.
+         * @param responseObserver the observer that will receive the features.
+         */
+        @Override
+        public void listFeaturesInPolygon(Region request, StreamObserver<Feature> responseObserver) {
+            IndexedFeatureStore current = snapshot.get();
+            IntList matches;
+            try {
+                matches = RegionSearch.search(current, request);
+            } catch (IllegalArgumentException e) {
+                responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+                return;
+            }
+            FeatureStreamer.start(responseObserver, current.features, matches);
+        }
+
+        /**
+         * Gets all features within {@code radius} meters of the center of the given {@link Circle},
+         * nearest first, see {@link RadiusSearch}. Features are only sent while the client keeps up.
+         * @param request the circle.
+         * @param responseObserver the observer that will receive the features.
+         */
+        @Override
+        public void listFeaturesInRadius(Circle request, StreamObserver<Feature> responseObserver) {
+            if (request.getRadius() < 0) {
+                responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("radius must not be negative")
+                        .asRuntimeException());
+                return;
+            }
+            IndexedFeatureStore current = snapshot.get();
+            IntList matches = RadiusSearch.search(current, request.getCenter().getLatitude(),
+                    request.getCenter().getLongitude(), request.getRadius());
+            FeatureStreamer.start(responseObserver, current.features, matches);
+        }
+
+        /**
+         * Summarizes the route of the streamed points once the client completes it. Every point is
+         * checked against the snapshot read when the call started, so a reload during a long route
+         * does not change the features the summary counts.
+         * @param responseObserver the observer that will receive the summary.
+         */
         public StreamObserver<Point> recordRoute(final StreamObserver<RouteSummary> responseObserver) {
+            final IndexedFeatureStore features = snapshot.get();
             return new StreamObserver<Point>() {
-                int pointCount;
-                int featureCount;
-                int distance;
-                Point previous;
-                final long startTime = System.nanoTime();
+                final RouteAccumulator route = new RouteAccumulator(true);
 
                 @Override
                 public void onNext(Point point) {
-                    pointCount++;
-                    if (RouteGuideUtil.exists(checkFeature(point))) {
-                        featureCount++;
-                    }
-                    // For each point after the first, add the incremental distance from the previous point to
-                    // the total distance value.
-                    if (previous != null) {
-                        distance += calcDistance(previous, point);
-                    }
-                    previous = point;
+                    route.add(point, RouteGuideUtil.exists(features.checkFeature(point)));
                 }
 
                 @Override
@@ -164,73 +511,98 @@ public class RouteGuideServer {
 
                 @Override
                 public void onCompleted() {
-                    long seconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime);
-                    responseObserver.onNext(RouteSummary.newBuilder().setPointCount(pointCount)
-                            .setFeatureCount(featureCount).setDistance(distance)
-                            .setElapsedTime((int) seconds).build());
+                    responseObserver.onNext(route.total());
                     responseObserver.onCompleted();
                 }
             };
         }
 
+        /** Streams the statistics of a route while it is recorded, see {@link RouteStatsStream}. */
         @Override
-        public StreamObserver<RouteNote> routeChat(final StreamObserver<RouteNote> responseObserver) {
-            return new StreamObserver<RouteNote>() {
-                @Override
-                public void onNext(RouteNote routeNote) {
-                    List<RouteNote> notes = getOrCreateNotes(routeNote.getLocation());
-                    for (RouteNote preNote: notes.toArray(new RouteNote[1])){
-                        responseObserver.onNext(preNote);
-                    }
-                    notes.add(routeNote);
-                }
-
-                @Override
-                public void onError(Throwable throwable) {
-                    logger.log(Level.WARNING, "routeChat cancelled");
-                }
-
-                @Override
-                public void onCompleted() {
-                    responseObserver.onCompleted();
-                }
-            };
+        public StreamObserver<Point> recordRouteLive(StreamObserver<RouteStats> responseObserver) {
+            return RouteStatsStream.start(responseObserver, snapshot.get(), timer);
         }
 
-        private List<RouteNote> getOrCreateNotes(Point location) {
-            List<RouteNote> notes = Collections.synchronizedList(new ArrayList<RouteNote>());
-            List<RouteNote> prevNotes = routeNotes.putIfAbsent(location, notes);
-            return prevNotes != null ? prevNotes : notes;
+        /**
+         * Replays the notes previously sent at the location of every received note, see
+         * {@link RouteChatCall}.
+         */
+        @Override
+        public StreamObserver<RouteNote> routeChat(StreamObserver<RouteNote> responseObserver) {
+            RouteChatCall chat = new RouteChatCall((ServerCallStreamObserver<RouteNote>) responseObserver);
+            chat.call.disableAutoInboundFlowControl();
+            chat.call.setOnReadyHandler(chat);
+            chat.call.request(1);
+            return chat;
         }
 
-        private static int calcDistance(Point start, Point end) {
-            int r = 6371000; // earth radius in meters
-            double lat1 = Math.toRadians(RouteGuideUtil.getLatitude(start));
-            double lat2 = Math.toRadians(RouteGuideUtil.getLatitude(end));
-            double lon1 = Math.toRadians(RouteGuideUtil.getLongitude(start));
-            double lon2 = Math.toRadians(RouteGuideUtil.getLongitude(end));
-
-            double deltaLat = lat2 - lat1;
-            double deltaLon = lon2 - lon1;
+        /**
+         * Server side of one RouteChat call. The next note is only requested once the replay for the
+         * current one has been sent, and sending pauses whenever the client stops reading (resuming
+         * from the on-ready handler), so a slow client cannot make the server buffer notes.
+         *
+         * <p>gRPC delivers every callback of a call serially, so no locking is needed.</p>
+         */
+        private final class RouteChatCall implements StreamObserver<RouteNote>, Runnable {
+            final ServerCallStreamObserver<RouteNote> call;
+            final RouteNoteStore.Cursor previousNotes = new RouteNoteStore.Cursor();
+            boolean replaying;
+            boolean halfClosed;
+            boolean completed;
+
+            RouteChatCall(ServerCallStreamObserver<RouteNote> call) {
+                this.call = call;
+            }
 
-            double a = Math.sin(deltaLat / 2) * Math.sin(deltaLat / 2)
-                    + Math.cos(lat1) * Math.cos(lat2) * Math.sin(deltaLon / 2) * Math.sin(deltaLon / 2);
+            @Override
+            public void onNext(RouteNote routeNote) {
+                routeNotes.append(routeNote, previousNotes);
+                replaying = true;
+                drain();
+            }
 
-            double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+            @Override
+            public void onError(Throwable throwable) {
+                completed = true;
+                logger.log(Level.WARNING, "routeChat cancelled");
+            }
 
-            return (int) (r * c);
-        }
+            @Override
+            public void onCompleted() {
+                halfClosed = true;
+                if (!replaying) {
+                    drain();
+                }
+            }
 
-        private Feature checkFeature(Point location) {
-            for (Feature feature: features) {
-                if (feature.getLocation().getLatitude() == location.getLatitude()
-                        && feature.getLocation().getLongitude() == location.getLongitude())
-                    return feature;
+            /** On-ready handler. */
+            @Override
+            public void run() {
+                if (replaying) {
+                    drain();
+                }
             }
 
-            // No feature was found, return an unnamed feature.
-            return Feature.newBuilder().setName("").setLocation(location).build();
+            private void drain() {
+                if (completed) {
+                    return;
+                }
+                while (previousNotes.hasNext()) {
+                    if (!call.isReady()) {
+                        return;
+                    }
+                    call.onNext(previousNotes.next());
+                }
+                replaying = false;
+                if (halfClosed) {
+                    completed = true;
+                    call.onCompleted();
+                } else {
+                    call.request(1);
+                }
+            }
         }
+
     }
 
 }
@@ -4,6 +4,7 @@ import com.google.protobuf.util.JsonFormat;
 import com.lxd.grpcl.Feature;
 import com.lxd.grpcl.FeatureDatabase;
 import com.lxd.grpcl.Point;
+import io.grpc.Metadata;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -16,6 +17,16 @@ import java.util.List;
 public class RouteGuideUtil {
     private static final double COORD_FACTOR = 1e7;
 
+    /** {@code StreamFeatures} request header, {@code ordered} (the default) or {@code unordered}. */
+    static final Metadata.Key<String> ORDER_HEADER =
+            Metadata.Key.of("routeguide-order", Metadata.ASCII_STRING_MARSHALLER);
+    /** {@code RecordRouteLive} request header, points between two reports. */
+    static final Metadata.Key<String> REPORT_POINTS_HEADER =
+            Metadata.Key.of("routeguide-report-points", Metadata.ASCII_STRING_MARSHALLER);
+    /** {@code RecordRouteLive} request header, milliseconds between two reports. */
+    static final Metadata.Key<String> REPORT_MILLIS_HEADER =
+            Metadata.Key.of("routeguide-report-millis", Metadata.ASCII_STRING_MARSHALLER);
+
     /**
      * Gets the latitude for the given point.
      */
@@ -51,6 +62,11 @@ public class RouteGuideUtil {
         }
     }
 
+    /** Haversine distance in meters, see {@link GeoDistance}. */
+    public static int calcDistance(Point start, Point end) {
+        return (int) GeoDistance.haversine(start, end);
+    }
+
     public static boolean exists(Feature feature) {
         return feature != null && !feature.getName().isEmpty();
     }
@@ -0,0 +1,204 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Point;
+import com.lxd.grpcl.RouteNote;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded store of the notes exchanged through {@code RouteChat}.
+ *
+ * <p>Each location keeps its latest {@code notesPerLocation} notes in an append-only log of
+ * fixed-size segments; whole segments are dropped from the front once they fall out of that
+ * window. Locations are spread over lock stripes by their packed coordinates, so appends at
+ * different locations rarely contend. Every stripe owns an equal share of the global memory budget
+ * and evicts its least recently used locations when it goes over.</p>
+ *
+ * <p>Filled slots and segments are never modified again, so replaying previous notes through a
+ * {@link Cursor} reads them in place, without copying and without holding a lock.</p>
+ */
+final class RouteNoteStore {
+    /** Rough per-note heap cost on top of its serialized size. */
+    private static final int NOTE_OVERHEAD = 64;
+    private static final int SEGMENT_SIZE = 16;
+
+    private final int notesPerLocation;
+    private final long stripeBudget;
+    private final Stripe[] stripes;
+    private final int mask;
+
+    /**
+     * @param notesPerLocation number of latest notes replayed per location, older ones are dropped in
+     *                         segments
+     * @param maxBytes approximate heap budget for all notes
+     * @param stripes number of lock stripes, rounded up to a power of two
+     */
+    RouteNoteStore(int notesPerLocation, long maxBytes, int stripes) {
+        if (notesPerLocation <= 0 || maxBytes <= 0 || stripes <= 0) {
+            throw new IllegalArgumentException("notesPerLocation, maxBytes and stripes must be positive");
+        }
+        int count = Integer.highestOneBit(stripes - 1) << 1;
+        count = Math.max(count, 1);
+        this.notesPerLocation = notesPerLocation;
+        this.stripeBudget = Math.max(1, maxBytes / count);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.mask = count - 1;
+    }
+
+    /**
+     * Creates a store sized by the {@code routeguide.notesPerLocation} (default 1000),
+     * {@code routeguide.noteMemoryBytes} (default 64MB) and {@code routeguide.noteStripes} (default 64)
+     * system properties.
+     */
+    static RouteNoteStore fromSystemProperties() {
+        return new RouteNoteStore(Integer.getInteger("routeguide.notesPerLocation", 1000),
+                Long.getLong("routeguide.noteMemoryBytes", 64L << 20),
+                Integer.getInteger("routeguide.noteStripes", 64));
+    }
+
+    /**
+     * Adds {@code note} at its location and positions {@code cursor} on the notes that were there
+     * before it, oldest first. The cursor can be reused for every note of a call.
+     */
+    void append(RouteNote note, Cursor cursor) {
+        Point location = note.getLocation();
+        long key = PointIndex.pack(location.getLatitude(), location.getLongitude());
+        Stripe stripe = stripes[mix(key) & mask];
+        long cost = (long) note.getSerializedSize() + NOTE_OVERHEAD;
+        synchronized (stripe) {
+            NoteLog log = stripe.locations.get(key);
+            if (log == null) {
+                log = new NoteLog();
+                stripe.locations.put(key, log);
+            }
+            // Reading the log under the stripe lock makes every earlier append visible to this thread,
+            // and the slots the cursor covers are never written again.
+            cursor.reset(log.head, Math.max(log.size - notesPerLocation, log.head.base), log.size);
+            stripe.bytes += cost - log.add(note, cost, notesPerLocation);
+            stripe.evict(stripeBudget, log);
+        }
+    }
+
+    /** Number of locations holding notes. */
+    int locations() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.locations.size();
+            }
+        }
+        return count;
+    }
+
+    /** Approximate heap used by the stored notes. */
+    long bytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                bytes += stripe.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /** Locations of one stripe in least recently used first order. Guarded by its own monitor. */
+    private static final class Stripe {
+        final LinkedHashMap<Long, NoteLog> locations = new LinkedHashMap<>(16, 0.75f, true);
+        long bytes;
+
+        /** Drops least recently used locations, never {@code keep}, until within {@code budget}. */
+        void evict(long budget, NoteLog keep) {
+            Iterator<Map.Entry<Long, NoteLog>> it = locations.entrySet().iterator();
+            while (bytes > budget && it.hasNext()) {
+                NoteLog log = it.next().getValue();
+                if (log != keep) {
+                    bytes -= log.bytes;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /** Fixed-size block of consecutive notes of one location, starting with note number {@code base}. */
+    private static final class Segment {
+        final long base;
+        final RouteNote[] notes = new RouteNote[SEGMENT_SIZE];
+        long bytes;
+        Segment next;
+
+        Segment(long base) {
+            this.base = base;
+        }
+    }
+
+    /** Append-only log of the notes at one location. Guarded by the monitor of its stripe. */
+    private static final class NoteLog {
+        /** Oldest segment still holding notes within the window. */
+        Segment head = new Segment(0);
+        Segment tail = head;
+        /** Number of notes ever appended. */
+        long size;
+        long bytes;
+
+        /**
+         * Adds {@code note}, dropping segments that only hold notes older than the latest
+         * {@code capacity} ones; returns the bytes freed.
+         */
+        long add(RouteNote note, long cost, int capacity) {
+            if (size - tail.base == SEGMENT_SIZE) {
+                Segment segment = new Segment(size);
+                tail.next = segment;
+                tail = segment;
+            }
+            tail.notes[(int) (size - tail.base)] = note;
+            tail.bytes += cost;
+            size++;
+            long freed = 0;
+            while (head != tail && head.base + SEGMENT_SIZE <= size - capacity) {
+                freed += head.bytes;
+                head = head.next;
+            }
+            bytes += cost - freed;
+            return freed;
+        }
+    }
+
+    /** Reusable iterator over a range of notes at one location. Not thread-safe. */
+    static final class Cursor {
+        private Segment segment;
+        private long position;
+        private long end;
+
+        void reset(Segment first, long start, long end) {
+            while (start >= first.base + SEGMENT_SIZE) {
+                first = first.next;
+            }
+            this.segment = first;
+            this.position = start;
+            this.end = end;
+        }
+
+        boolean hasNext() {
+            return position < end;
+        }
+
+        RouteNote next() {
+            if (position - segment.base == SEGMENT_SIZE) {
+                segment = segment.next;
+            }
+            return segment.notes[(int) (position++ - segment.base)];
+        }
+    }
+}
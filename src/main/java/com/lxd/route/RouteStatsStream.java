@@ -0,0 +1,137 @@
+package com.lxd.route;
+
+import com.lxd.grpcl.Point;
+import com.lxd.grpcl.RouteStats;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Server side of one {@code RecordRouteLive} call.
+ *
+ * <p>Every received point is added to a {@link RouteAccumulator}, and the statistics of the route so
+ * far and of the points since the previous report are sent every {@code routeguide-report-points}
+ * points and every {@code routeguide-report-millis} milliseconds (request headers, default 0 and
+ * 1000, 0 disabling the trigger). Once the client half-closes, the final statistics are sent with
+ * {@code last} set and the call completes.</p>
+ *
+ * <p>A report falling due while the client is not reading is held back until it is, and then covers
+ * every point since the previous one, so at most one report is ever buffered.</p>
+ *
+ * <p>All state is guarded by the monitor of this object, since the report timer runs apart from the
+ * gRPC callbacks.</p>
+ */
+final class RouteStatsStream implements StreamObserver<Point>, Runnable {
+    private static final Logger logger = Logger.getLogger(RouteStatsStream.class.getName());
+
+    /** Reports are not sent more often than this, whatever the client asked for. */
+    private static final long MIN_REPORT_MILLIS = 10;
+
+    private final ServerCallStreamObserver<RouteStats> call;
+    private final IndexedFeatureStore features;
+    private final long reportPoints;
+    private final RouteAccumulator route = new RouteAccumulator(false);
+    private ScheduledFuture<?> reportTimer;
+    private boolean reportDue;
+    private boolean completed;
+
+    private RouteStatsStream(ServerCallStreamObserver<RouteStats> call, IndexedFeatureStore features,
+                             long reportPoints) {
+        this.call = call;
+        this.features = features;
+        this.reportPoints = reportPoints;
+    }
+
+    /**
+     * Starts serving a call, returning the observer of its points. Must be called from the service
+     * method handling the call.
+     */
+    static StreamObserver<Point> start(StreamObserver<RouteStats> responseObserver, IndexedFeatureStore features,
+                                       ScheduledExecutorService timer) {
+        ServerCallStreamObserver<RouteStats> call = (ServerCallStreamObserver<RouteStats>) responseObserver;
+        final RouteStatsStream stream = new RouteStatsStream(call, features,
+                Math.max(0, RequestHeaders.getLong(RouteGuideUtil.REPORT_POINTS_HEADER, 0)));
+        long reportMillis = RequestHeaders.getLong(RouteGuideUtil.REPORT_MILLIS_HEADER, 1000);
+        call.setOnReadyHandler(stream);
+        if (reportMillis > 0) {
+            reportMillis = Math.max(reportMillis, MIN_REPORT_MILLIS);
+            synchronized (stream) {
+                stream.reportTimer = timer.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        stream.reportDue();
+                    }
+                }, reportMillis, reportMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return stream;
+    }
+
+    @Override
+    public synchronized void onNext(Point point) {
+        if (completed) {
+            return;
+        }
+        route.add(point, RouteGuideUtil.exists(features.checkFeature(point)));
+        if (reportPoints > 0 && route.windowPointCount() >= reportPoints) {
+            reportDue();
+        }
+    }
+
+    @Override
+    public synchronized void onError(Throwable throwable) {
+        completed = true;
+        cancelReportTimer();
+        logger.log(Level.WARNING, "recordRouteLive cancelled");
+    }
+
+    @Override
+    public synchronized void onCompleted() {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        cancelReportTimer();
+        // Sent even if the client is not reading yet; gRPC buffers this one message.
+        call.onNext(RouteStats.newBuilder().setTotal(route.total()).setWindow(route.window()).setLast(true).build());
+        call.onCompleted();
+    }
+
+    /** On-ready handler, sends a report held back while the client was not reading. */
+    @Override
+    public synchronized void run() {
+        if (reportDue) {
+            report();
+        }
+    }
+
+    private synchronized void reportDue() {
+        if (completed) {
+            return;
+        }
+        reportDue = true;
+        if (call.isReady()) {
+            report();
+        }
+    }
+
+    private void report() {
+        if (completed || call.isCancelled()) {
+            return;
+        }
+        reportDue = false;
+        call.onNext(RouteStats.newBuilder().setTotal(route.total()).setWindow(route.window()).build());
+    }
+
+    private void cancelReportTimer() {
+        if (reportTimer != null) {
+            reportTimer.cancel(false);
+            reportTimer = null;
+        }
+    }
+}
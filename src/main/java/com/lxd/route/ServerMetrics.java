@@ -0,0 +1,248 @@
+package com.lxd.route;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Interceptor recording, per RPC method, started and handled calls by status, calls in flight,
+ * messages received and sent, call latency and messages per stream.
+ *
+ * <p>Recording only increments {@link LongAdder}s, so it takes no lock and threads serving different
+ * calls rarely contend. Histograms use fixed buckets. {@link MetricsExporter}s read the metrics
+ * through {@link #writePrometheus(Appendable)}.</p>
+ */
+public final class ServerMetrics implements ServerInterceptor {
+    /** Upper bounds of the latency buckets, from 100 us to 10 s. */
+    private static final long[] LATENCY_BOUNDS_NANOS = {
+            100_000L, 250_000L, 500_000L, 1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L,
+            50_000_000L, 100_000_000L, 250_000_000L, 500_000_000L, 1_000_000_000L, 2_500_000_000L,
+            5_000_000_000L, 10_000_000_000L};
+    /** Upper bounds of the messages per stream buckets, powers of 4 up to 65536. */
+    private static final long[] MESSAGE_BOUNDS = {0, 1, 4, 16, 64, 256, 1024, 4096, 16384, 65536};
+    private static final Status.Code[] CODES = Status.Code.values();
+
+    private final ConcurrentMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        String name = call.getMethodDescriptor().getFullMethodName();
+        MethodMetrics method = methods.get(name);
+        if (method == null) {
+            MethodMetrics created = new MethodMetrics();
+            method = methods.putIfAbsent(name, created);
+            if (method == null) {
+                method = created;
+            }
+        }
+        CallMetrics<ReqT, RespT> metered = new CallMetrics<>(call, method);
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(metered, headers);
+        } catch (RuntimeException e) {
+            // No listener will ever complete this call.
+            metered.code = Status.Code.UNKNOWN;
+            metered.finish();
+            throw e;
+        }
+        return metered.listen(listener);
+    }
+
+    /** Writes every metric in the Prometheus text exposition format. */
+    public void writePrometheus(Appendable out) throws IOException {
+        Map<String, MethodMetrics> sorted = new TreeMap<>(methods);
+
+        header(out, "routeguide_server_started_total", "counter", "Calls started.");
+        for (Map.Entry<String, MethodMetrics> entry : sorted.entrySet()) {
+            sample(out, "routeguide_server_started_total", labels(entry.getKey()), entry.getValue().started.sum());
+        }
+        header(out, "routeguide_server_handled_total", "counter", "Calls completed, by status code.");
+        for (Map.Entry<String, MethodMetrics> entry : sorted.entrySet()) {
+            LongAdder[] handled = entry.getValue().handled;
+            for (int i = 0; i < handled.length; i++) {
+                long count = handled[i].sum();
+                if (count > 0) {
+                    sample(out, "routeguide_server_handled_total",
+                            labels(entry.getKey()) + ",code=\"" + CODES[i] + "\"", count);
+                }
+            }
+        }
+        header(out, "routeguide_server_in_flight", "gauge", "Calls in progress.");
+        for (Map.Entry<String, MethodMetrics> entry : sorted.entrySet()) {
+            sample(out, "routeguide_server_in_flight", labels(entry.getKey()), entry.getValue().inFlight.sum());
+        }
+        header(out, "routeguide_server_messages_received_total", "counter", "Request messages received.");
+        for (Map.Entry<String, MethodMetrics> entry : sorted.entrySet()) {
+            sample(out, "routeguide_server_messages_received_total", labels(entry.getKey()),
+                    entry.getValue().received.sum());
+        }
+        header(out, "routeguide_server_messages_sent_total", "counter", "Response messages sent.");
+        for (Map.Entry<String, MethodMetrics> entry : sorted.entrySet()) {
+            sample(out, "routeguide_server_messages_sent_total", labels(entry.getKey()), entry.getValue().sent.sum());
+        }
+        header(out, "routeguide_server_latency_seconds", "histogram", "Time from call start to completion.");
+        for (Map.Entry<String, MethodMetrics> entry : sorted.entrySet()) {
+            entry.getValue().latency.write(out, "routeguide_server_latency_seconds", labels(entry.getKey()), 1e-9);
+        }
+        header(out, "routeguide_server_messages_per_stream", "histogram", "Messages of completed calls.");
+        for (Map.Entry<String, MethodMetrics> entry : sorted.entrySet()) {
+            entry.getValue().receivedPerCall.write(out, "routeguide_server_messages_per_stream",
+                    labels(entry.getKey()) + ",direction=\"received\"", 1);
+            entry.getValue().sentPerCall.write(out, "routeguide_server_messages_per_stream",
+                    labels(entry.getKey()) + ",direction=\"sent\"", 1);
+        }
+    }
+
+    private static String labels(String method) {
+        return "method=\"" + method + "\"";
+    }
+
+    private static void header(Appendable out, String name, String type, String help) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(Appendable out, String name, String labels, long value) throws IOException {
+        out.append(name).append('{').append(labels).append("} ").append(Long.toString(value)).append('\n');
+    }
+
+    /** Metrics of one method. */
+    private static final class MethodMetrics {
+        final LongAdder started = new LongAdder();
+        final LongAdder[] handled = new LongAdder[CODES.length];
+        final LongAdder inFlight = new LongAdder();
+        final LongAdder received = new LongAdder();
+        final LongAdder sent = new LongAdder();
+        final Buckets latency = new Buckets(LATENCY_BOUNDS_NANOS);
+        final Buckets receivedPerCall = new Buckets(MESSAGE_BOUNDS);
+        final Buckets sentPerCall = new Buckets(MESSAGE_BOUNDS);
+
+        MethodMetrics() {
+            for (int i = 0; i < handled.length; i++) {
+                handled[i] = new LongAdder();
+            }
+        }
+    }
+
+    /** Histogram with fixed upper bounds; values above the last one only count towards {@code +Inf}. */
+    private static final class Buckets {
+        private final long[] bounds;
+        private final LongAdder[] counts;
+        private final LongAdder sum = new LongAdder();
+
+        Buckets(long[] bounds) {
+            this.bounds = bounds;
+            this.counts = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            int bucket = Arrays.binarySearch(bounds, value);
+            counts[bucket >= 0 ? bucket : -bucket - 1].increment();
+            sum.add(value);
+        }
+
+        /** Writes cumulative buckets, with bounds and sum multiplied by {@code scale}. */
+        void write(Appendable out, String name, String labels, double scale) throws IOException {
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i].sum();
+                String bound = i < bounds.length ? format(bounds[i] * scale) : "+Inf";
+                sample(out, name + "_bucket", labels + ",le=\"" + bound + "\"", cumulative);
+            }
+            out.append(name).append("_sum{").append(labels).append("} ").append(format(sum.sum() * scale)).append('\n');
+            sample(out, name + "_count", labels, cumulative);
+        }
+
+        private static String format(double value) {
+            return value == Math.rint(value) ? Long.toString((long) value) : String.format(Locale.ROOT, "%.6g", value);
+        }
+    }
+
+    /**
+     * Counts the messages of one call and records it once completed or cancelled. gRPC serializes the
+     * listener callbacks, and sending happens before the completion the listener is told about.
+     */
+    private static final class CallMetrics<ReqT, RespT>
+            extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        private final MethodMetrics method;
+        private final long start = System.nanoTime();
+        private volatile int sent;
+        private volatile int received;
+        private volatile Status.Code code = Status.Code.CANCELLED;
+
+        CallMetrics(ServerCall<ReqT, RespT> call, MethodMetrics method) {
+            super(call);
+            this.method = method;
+            method.started.increment();
+            method.inFlight.increment();
+        }
+
+        @Override
+        public void sendMessage(RespT message) {
+            sent++;
+            method.sent.increment();
+            super.sendMessage(message);
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            code = status.getCode();
+            super.close(status, trailers);
+        }
+
+        ServerCall.Listener<ReqT> listen(ServerCall.Listener<ReqT> listener) {
+            return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+                @Override
+                public void onMessage(ReqT message) {
+                    received++;
+                    method.received.increment();
+                    super.onMessage(message);
+                }
+
+                @Override
+                public void onComplete() {
+                    try {
+                        super.onComplete();
+                    } finally {
+                        finish();
+                    }
+                }
+
+                @Override
+                public void onCancel() {
+                    code = Status.Code.CANCELLED;
+                    try {
+                        super.onCancel();
+                    } finally {
+                        finish();
+                    }
+                }
+            };
+        }
+
+        private void finish() {
+            method.latency.record(System.nanoTime() - start);
+            method.handled[code.ordinal()].increment();
+            method.receivedPerCall.record(received);
+            method.sentPerCall.record(sent);
+            method.inFlight.decrement();
+        }
+    }
+}
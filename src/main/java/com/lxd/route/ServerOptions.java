@@ -0,0 +1,201 @@
+package com.lxd.route;
+
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.ServerChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Threading model of a Netty based {@link RouteGuideServer}: the executor running the handlers, the
+ * sizes of the boss (accepting connections) and worker (network I/O) event loop groups, and whether
+ * to use the native epoll transport. Also the port metrics are served on, if any.
+ *
+ * <p>The executor and event loops are created by {@link #newServerBuilder(int)} and released by
+ * {@link #close()}, which the server does once stopped.</p>
+ */
+public final class ServerOptions implements Closeable {
+    private static final Logger logger = Logger.getLogger(ServerOptions.class.getName());
+
+    /** Where the service methods run. */
+    public enum ExecutorKind {
+        /** The default gRPC executor, an unbounded cached thread pool. */
+        DEFAULT,
+        /**
+         * The network thread that received the message. Cheapest, but a handler that blocks stalls
+         * every call of that event loop.
+         */
+        DIRECT,
+        /** A fork-join pool of {@code executorThreads} threads. */
+        FORK_JOIN,
+        /** A new virtual thread per task. Needs a JDK with virtual threads (21+). */
+        VIRTUAL
+    }
+
+    private ExecutorKind executor = ExecutorKind.DEFAULT;
+    private int executorThreads = Runtime.getRuntime().availableProcessors();
+    private int bossThreads = 1;
+    private int workerThreads;
+    private boolean epoll;
+    private int metricsPort = -1;
+    private final List<EventLoopGroup> eventLoops = new ArrayList<>();
+    private final List<ExecutorService> executors = new ArrayList<>();
+
+    /**
+     * Reads the {@code routeguide.executor} ({@code default}, {@code direct}, {@code fork_join} or
+     * {@code virtual}), {@code routeguide.executorThreads}, {@code routeguide.bossThreads},
+     * {@code routeguide.workerThreads}, {@code routeguide.epoll} and {@code routeguide.metricsPort}
+     * system properties.
+     */
+    public static ServerOptions fromSystemProperties() {
+        ServerOptions options = new ServerOptions();
+        options.executor(ExecutorKind.valueOf(
+                System.getProperty("routeguide.executor", ExecutorKind.DEFAULT.name()).toUpperCase(Locale.ROOT)));
+        options.executorThreads(Integer.getInteger("routeguide.executorThreads", options.executorThreads));
+        options.bossThreads(Integer.getInteger("routeguide.bossThreads", options.bossThreads));
+        options.workerThreads(Integer.getInteger("routeguide.workerThreads", options.workerThreads));
+        options.epoll(Boolean.getBoolean("routeguide.epoll"));
+        options.metricsPort(Integer.getInteger("routeguide.metricsPort", options.metricsPort));
+        return options;
+    }
+
+    public ServerOptions executor(ExecutorKind executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /** Parallelism of the {@link ExecutorKind#FORK_JOIN} executor. Defaults to one per processor. */
+    public ServerOptions executorThreads(int executorThreads) {
+        if (executorThreads <= 0) {
+            throw new IllegalArgumentException("executorThreads must be positive");
+        }
+        this.executorThreads = executorThreads;
+        return this;
+    }
+
+    /** Threads accepting connections. Defaults to 1. */
+    public ServerOptions bossThreads(int bossThreads) {
+        if (bossThreads <= 0) {
+            throw new IllegalArgumentException("bossThreads must be positive");
+        }
+        this.bossThreads = bossThreads;
+        return this;
+    }
+
+    /** Threads doing network I/O, 0 for the Netty default of two per processor. */
+    public ServerOptions workerThreads(int workerThreads) {
+        if (workerThreads < 0) {
+            throw new IllegalArgumentException("workerThreads must not be negative");
+        }
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    /** Uses the native epoll transport when available, NIO otherwise. */
+    public ServerOptions epoll(boolean epoll) {
+        this.epoll = epoll;
+        return this;
+    }
+
+    /**
+     * Serves the server metrics on {@code port} of the loopback interface through a
+     * {@link PrometheusHttpExporter}, 0 for any free port. Negative, the default, serves none.
+     */
+    public ServerOptions metricsPort(int metricsPort) {
+        if (metricsPort > 65535) {
+            throw new IllegalArgumentException("metricsPort must be at most 65535");
+        }
+        this.metricsPort = metricsPort;
+        return this;
+    }
+
+    /** Port to serve metrics on, negative for none. */
+    int metricsPort() {
+        return metricsPort;
+    }
+
+    /** Creates a builder for a server listening on {@code port} with these options. */
+    public synchronized NettyServerBuilder newServerBuilder(int port) {
+        NettyServerBuilder builder = NettyServerBuilder.forPort(port);
+
+        boolean useEpoll = epoll && Epoll.isAvailable();
+        if (epoll && !useEpoll) {
+            logger.warning("epoll is not available, using NIO: " + Epoll.unavailabilityCause());
+        }
+        EventLoopGroup boss = eventLoop(bossThreads, "routeguide-boss", useEpoll);
+        EventLoopGroup worker = eventLoop(workerThreads, "routeguide-worker", useEpoll);
+        Class<? extends ServerChannel> channelType = useEpoll
+                ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+        builder.bossEventLoopGroup(boss).workerEventLoopGroup(worker).channelType(channelType);
+
+        switch (executor) {
+            case DIRECT:
+                builder.directExecutor();
+                break;
+            case FORK_JOIN:
+                builder.executor(register(new ForkJoinPool(executorThreads,
+                        ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true)));
+                break;
+            case VIRTUAL:
+                builder.executor(register(newVirtualThreadPerTaskExecutor()));
+                break;
+            default:
+                break;
+        }
+        logger.info("Server threading: executor " + executor + ", " + bossThreads + " boss and "
+                + (workerThreads == 0 ? "default" : Integer.toString(workerThreads)) + " worker threads, "
+                + (useEpoll ? "epoll" : "NIO") + " transport");
+        return builder;
+    }
+
+    private EventLoopGroup eventLoop(int threads, String name, boolean useEpoll) {
+        ThreadFactory threadFactory = new DefaultThreadFactory(name, true);
+        EventLoopGroup group = useEpoll
+                ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+        eventLoops.add(group);
+        return group;
+    }
+
+    private ExecutorService register(ExecutorService executor) {
+        executors.add(executor);
+        return executor;
+    }
+
+    /** Looked up reflectively, so the server still builds and runs on Java 8. */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later, running "
+                    + System.getProperty("java.version"), e);
+        }
+    }
+
+    /** Releases the executors and event loops created so far. Call once the server has terminated. */
+    @Override
+    public synchronized void close() {
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+        for (EventLoopGroup group : eventLoops) {
+            group.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        }
+        executors.clear();
+        eventLoops.clear();
+    }
+}
@@ -0,0 +1,33 @@
+package com.lxd.route;
+
+/**
+ * {@link PointIndex} for stores whose features are sorted by latitude, then longitude. Lookups
+ * binary search the coordinate columns directly, so nothing has to be built up front.
+ */
+final class SortedPointIndex implements PointIndex {
+    private final FeatureStore features;
+
+    SortedPointIndex(FeatureStore features) {
+        this.features = features;
+    }
+
+    @Override
+    public int find(int latitude, int longitude) {
+        // Lower bound, so the first of several features at the same location is returned.
+        int low = 0;
+        int high = features.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int lat = features.latitude(mid);
+            if (lat < latitude || (lat == latitude && features.longitude(mid) < longitude)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low < features.size() && features.latitude(low) == latitude && features.longitude(low) == longitude) {
+            return low;
+        }
+        return -1;
+    }
+}
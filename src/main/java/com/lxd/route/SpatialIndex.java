@@ -0,0 +1,124 @@
+package com.lxd.route;
+
+import java.util.Locale;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable index answering rectangle queries over the locations of named features.
+ *
+ * <p>Results are reported as positions into the {@link FeatureStore} the index was built from.
+ * Unnamed features are never indexed, since {@code ListFeatures} does not return them.</p>
+ */
+interface SpatialIndex {
+
+    /**
+     * Calls {@code visitor} with the position of every indexed feature whose location lies inside
+     * the given bounds. Bounds are inclusive and {@code min} must not be greater than {@code max}.
+     */
+    void search(int minLat, int minLon, int maxLat, int maxLon, IntConsumer visitor);
+
+    /**
+     * Reports the same features as {@link #search(int, int, int, int, IntConsumer)}, but in an order
+     * fixed for the index and numbering every entry, skipping those numbered below {@code from}. Stops
+     * as soon as {@code visitor} returns {@code false}, so resuming after entry {@code e} only costs
+     * the seek to {@code e + 1}, not the entries before it. Numbers need not be contiguous.
+     */
+    void search(int minLat, int minLon, int maxLat, int maxLon, int from, EntryVisitor visitor);
+
+    /**
+     * Number of indexed features whose location lies inside the given bounds, as {@link #search}
+     * would report. Parts of the index entirely inside the bounds are counted without visiting their
+     * entries.
+     */
+    int count(int minLat, int minLon, int maxLat, int maxLon);
+
+    /** Receives the entries found by a resumable search. */
+    interface EntryVisitor {
+        /** Called with the number of an entry and the feature position; returns whether to go on. */
+        boolean visit(int entry, int position);
+    }
+
+    /** Available implementations, selected with the {@code routeguide.spatialIndex} system property. */
+    enum Kind {
+        /** Sort-Tile-Recursive packed R-tree. */
+        RTREE {
+            @Override
+            SpatialIndex build(int[] lat, int[] lon, int[] id) {
+                return StrTree.build(lat, lon, id);
+            }
+        },
+        /** Uniform grid sized to the number of features. */
+        GRID {
+            @Override
+            SpatialIndex build(int[] lat, int[] lon, int[] id) {
+                return GridIndex.build(lat, lon, id);
+            }
+        },
+        /** Tests every feature, only useful to compare against the real indexes. */
+        SCAN {
+            @Override
+            SpatialIndex build(final int[] lat, final int[] lon, final int[] id) {
+                return new SpatialIndex() {
+                    @Override
+                    public void search(int minLat, int minLon, int maxLat, int maxLon, IntConsumer visitor) {
+                        for (int i = 0; i < id.length; i++) {
+                            if (lon[i] >= minLon && lon[i] <= maxLon && lat[i] >= minLat && lat[i] <= maxLat) {
+                                visitor.accept(id[i]);
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void search(int minLat, int minLon, int maxLat, int maxLon, int from,
+                                       EntryVisitor visitor) {
+                        for (int i = Math.max(from, 0); i < id.length; i++) {
+                            if (lon[i] >= minLon && lon[i] <= maxLon && lat[i] >= minLat && lat[i] <= maxLat
+                                    && !visitor.visit(i, id[i])) {
+                                return;
+                            }
+                        }
+                    }
+
+                    @Override
+                    public int count(int minLat, int minLon, int maxLat, int maxLon) {
+                        int count = 0;
+                        for (int i = 0; i < id.length; i++) {
+                            if (lon[i] >= minLon && lon[i] <= maxLon && lat[i] >= minLat && lat[i] <= maxLat) {
+                                count++;
+                            }
+                        }
+                        return count;
+                    }
+                };
+            }
+        };
+
+        /** Builds an index over the given entries, taking ownership of the arrays. */
+        abstract SpatialIndex build(int[] lat, int[] lon, int[] id);
+
+        /** Builds an index over the named features of {@code features}. */
+        SpatialIndex build(FeatureStore features) {
+            int n = 0;
+            for (int i = 0; i < features.size(); i++) {
+                if (features.exists(i)) {
+                    n++;
+                }
+            }
+            int[] lat = new int[n];
+            int[] lon = new int[n];
+            int[] id = new int[n];
+            for (int i = 0, j = 0; i < features.size(); i++) {
+                if (features.exists(i)) {
+                    lat[j] = features.latitude(i);
+                    lon[j] = features.longitude(i);
+                    id[j++] = i;
+                }
+            }
+            return build(lat, lon, id);
+        }
+
+        static Kind fromSystemProperty() {
+            return valueOf(System.getProperty("routeguide.spatialIndex", RTREE.name()).toUpperCase(Locale.ROOT));
+        }
+    }
+}
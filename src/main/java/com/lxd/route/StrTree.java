@@ -0,0 +1,380 @@
+package com.lxd.route;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Static R-tree bulk loaded with the Sort-Tile-Recursive algorithm.
+ *
+ * <p>Entries and nodes live in flat primitive arrays. Nodes are laid out level by level starting
+ * with the leaves, so the root is the last node and the children of a node are the contiguous
+ * range {@code [childStart, childEnd)} of the level below (or of the entry arrays for leaves).
+ * Every node also knows the number of entries below it, so counts need not visit the subtrees
+ * entirely inside the query.</p>
+ */
+final class StrTree implements SpatialIndex {
+    static final int NODE_CAPACITY = 16;
+    /** Inputs at least this large have their slices sorted in parallel. */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private final int[] entryLat;
+    private final int[] entryLon;
+    private final int[] entryId;
+
+    private final int[] nodeMinLat;
+    private final int[] nodeMinLon;
+    private final int[] nodeMaxLat;
+    private final int[] nodeMaxLon;
+    private final int[] childStart;
+    private final int[] childEnd;
+    /** Number of leaf nodes; nodes below this index point at entries rather than nodes. */
+    private final int leafCount;
+    private final int height;
+    /** Entries below each node, derived from the structure rather than stored in database files. */
+    private final int[] nodeCount;
+    /** Parent of each node but the root, derived like {@link #nodeCount}. */
+    private final int[] parent;
+    /** Order in which a depth-first search meets each leaf, and the leaf met at each rank. */
+    private final int[] leafRank;
+    private final int[] rankLeaf;
+
+    private StrTree(int[] entryLat, int[] entryLon, int[] entryId, int[] nodeMinLat, int[] nodeMinLon,
+                    int[] nodeMaxLat, int[] nodeMaxLon, int[] childStart, int[] childEnd, int leafCount, int height) {
+        this.entryLat = entryLat;
+        this.entryLon = entryLon;
+        this.entryId = entryId;
+        this.nodeMinLat = nodeMinLat;
+        this.nodeMinLon = nodeMinLon;
+        this.nodeMaxLat = nodeMaxLat;
+        this.nodeMaxLon = nodeMaxLon;
+        this.childStart = childStart;
+        this.childEnd = childEnd;
+        this.leafCount = leafCount;
+        this.height = height;
+        // Children come before their parent, so one pass upwards sees every child count first.
+        this.nodeCount = new int[nodeMinLat.length];
+        this.parent = new int[nodeMinLat.length];
+        for (int node = 0; node < nodeCount.length; node++) {
+            if (node < leafCount) {
+                nodeCount[node] = childEnd[node] - childStart[node];
+            } else {
+                for (int child = childStart[node]; child < childEnd[node]; child++) {
+                    nodeCount[node] += nodeCount[child];
+                    parent[child] = node;
+                }
+            }
+        }
+        this.leafRank = new int[leafCount];
+        this.rankLeaf = new int[leafCount];
+        int[] stack = new int[height * NODE_CAPACITY + 1];
+        int top = 0;
+        stack[top++] = nodeMinLat.length - 1;
+        for (int rank = 0; top > 0; ) {
+            int node = stack[--top];
+            if (node < leafCount) {
+                leafRank[node] = rank;
+                rankLeaf[rank++] = node;
+            } else {
+                for (int child = childEnd[node] - 1; child >= childStart[node]; child--) {
+                    stack[top++] = child;
+                }
+            }
+        }
+    }
+
+    static StrTree build(int[] lat, int[] lon, int[] id) {
+        int n = id.length;
+
+        // Pack the entries into leaves.
+        int[] order = strOrder(lat, lat, lon, lon, n);
+        int[] entryLat = new int[n];
+        int[] entryLon = new int[n];
+        int[] entryId = new int[n];
+        for (int i = 0; i < n; i++) {
+            entryLat[i] = lat[order[i]];
+            entryLon[i] = lon[order[i]];
+            entryId[i] = id[order[i]];
+        }
+
+        int total = 0;
+        for (int count = n; ; ) {
+            count = Math.max(1, (count + NODE_CAPACITY - 1) / NODE_CAPACITY);
+            total += count;
+            if (count == 1) {
+                break;
+            }
+        }
+        int[] minLat = new int[total];
+        int[] minLon = new int[total];
+        int[] maxLat = new int[total];
+        int[] maxLon = new int[total];
+        int[] start = new int[total];
+        int[] end = new int[total];
+
+        int leafCount = group(entryLat, entryLon, entryLat, entryLon, 0, n, minLat, minLon, maxLat, maxLon,
+                start, end, 0);
+        int height = 1;
+
+        // Pack each level of nodes into the level above until a single root remains.
+        int levelStart = 0;
+        int levelEnd = leafCount;
+        while (levelEnd - levelStart > 1) {
+            int count = levelEnd - levelStart;
+            int[] levelOrder = strOrder(Arrays.copyOfRange(minLat, levelStart, levelEnd),
+                    Arrays.copyOfRange(maxLat, levelStart, levelEnd),
+                    Arrays.copyOfRange(minLon, levelStart, levelEnd),
+                    Arrays.copyOfRange(maxLon, levelStart, levelEnd), count);
+            permute(levelOrder, levelStart, minLat, minLon, maxLat, maxLon, start, end);
+            int next = group(minLat, minLon, maxLat, maxLon, levelStart, levelEnd, minLat, minLon, maxLat, maxLon,
+                    start, end, levelEnd);
+            levelStart = levelEnd;
+            levelEnd = next;
+            height++;
+        }
+        return new StrTree(entryLat, entryLon, entryId, minLat, minLon, maxLat, maxLon, start, end, leafCount,
+                height);
+    }
+
+    /** Reads back a tree written by {@link #writeTo(DataOutput)}. */
+    static StrTree read(IntBuffer in) {
+        int entries = in.get();
+        int nodes = in.get();
+        int leafCount = in.get();
+        int height = in.get();
+        return new StrTree(readInts(in, entries), readInts(in, entries), readInts(in, entries),
+                readInts(in, nodes), readInts(in, nodes), readInts(in, nodes), readInts(in, nodes),
+                readInts(in, nodes), readInts(in, nodes), leafCount, height);
+    }
+
+    /** Writes the tree as a sequence of ints: a four int header followed by every array. */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(entryId.length);
+        out.writeInt(nodeMinLat.length);
+        out.writeInt(leafCount);
+        out.writeInt(height);
+        for (int[] array : new int[][] {entryLat, entryLon, entryId,
+                nodeMinLat, nodeMinLon, nodeMaxLat, nodeMaxLon, childStart, childEnd}) {
+            for (int value : array) {
+                out.writeInt(value);
+            }
+        }
+    }
+
+    @Override
+    public void search(int minLat, int minLon, int maxLat, int maxLon, IntConsumer visitor) {
+        if (entryId.length == 0) {
+            return;
+        }
+        int[] stack = new int[height * NODE_CAPACITY + 1];
+        int top = 0;
+        stack[top++] = nodeMinLat.length - 1;
+        while (top > 0) {
+            int node = stack[--top];
+            if (nodeMinLat[node] > maxLat || nodeMaxLat[node] < minLat
+                    || nodeMinLon[node] > maxLon || nodeMaxLon[node] < minLon) {
+                continue;
+            }
+            if (node < leafCount) {
+                for (int i = childStart[node], end = childEnd[node]; i < end; i++) {
+                    int lat = entryLat[i];
+                    int lon = entryLon[i];
+                    if (lon >= minLon && lon <= maxLon && lat >= minLat && lat <= maxLat) {
+                        visitor.accept(entryId[i]);
+                    }
+                }
+            } else {
+                for (int child = childEnd[node] - 1; child >= childStart[node]; child--) {
+                    stack[top++] = child;
+                }
+            }
+        }
+    }
+
+    /**
+     * Entries are numbered {@code rank * NODE_CAPACITY + i} for the {@code i}th entry of the leaf a
+     * depth-first search meets at {@code rank}. Resuming rebuilds the stack that search had at the
+     * leaf holding {@code from}, walking up from it to the root.
+     */
+    @Override
+    public void search(int minLat, int minLon, int maxLat, int maxLon, int from, EntryVisitor visitor) {
+        from = Math.max(from, 0);
+        if (entryId.length == 0 || from / NODE_CAPACITY >= leafCount) {
+            return;
+        }
+        int leaf = rankLeaf[from / NODE_CAPACITY];
+        int[] path = new int[height];
+        path[0] = leaf;
+        for (int level = 1; level < height; level++) {
+            path[level] = parent[path[level - 1]];
+        }
+        int[] stack = new int[height * NODE_CAPACITY + 1];
+        int top = 0;
+        // What is left to visit after the leaf: the later siblings of each node on its path, deepest on top.
+        for (int level = height - 1; level > 0; level--) {
+            for (int sibling = childEnd[path[level]] - 1; sibling > path[level - 1]; sibling--) {
+                stack[top++] = sibling;
+            }
+        }
+        stack[top++] = leaf;
+        while (top > 0) {
+            int node = stack[--top];
+            if (nodeMinLat[node] > maxLat || nodeMaxLat[node] < minLat
+                    || nodeMinLon[node] > maxLon || nodeMaxLon[node] < minLon) {
+                continue;
+            }
+            if (node < leafCount) {
+                int first = leafRank[node] * NODE_CAPACITY;
+                for (int i = childStart[node] + Math.max(0, from - first), end = childEnd[node]; i < end; i++) {
+                    int lat = entryLat[i];
+                    int lon = entryLon[i];
+                    if (lon >= minLon && lon <= maxLon && lat >= minLat && lat <= maxLat
+                            && !visitor.visit(first + i - childStart[node], entryId[i])) {
+                        return;
+                    }
+                }
+            } else {
+                for (int child = childEnd[node] - 1; child >= childStart[node]; child--) {
+                    stack[top++] = child;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int count(int minLat, int minLon, int maxLat, int maxLon) {
+        if (entryId.length == 0) {
+            return 0;
+        }
+        int count = 0;
+        int[] stack = new int[height * NODE_CAPACITY + 1];
+        int top = 0;
+        stack[top++] = nodeMinLat.length - 1;
+        while (top > 0) {
+            int node = stack[--top];
+            if (nodeMinLat[node] > maxLat || nodeMaxLat[node] < minLat
+                    || nodeMinLon[node] > maxLon || nodeMaxLon[node] < minLon) {
+                continue;
+            }
+            if (nodeMinLat[node] >= minLat && nodeMaxLat[node] <= maxLat
+                    && nodeMinLon[node] >= minLon && nodeMaxLon[node] <= maxLon) {
+                count += nodeCount[node];
+            } else if (node < leafCount) {
+                for (int i = childStart[node], end = childEnd[node]; i < end; i++) {
+                    int lat = entryLat[i];
+                    int lon = entryLon[i];
+                    if (lon >= minLon && lon <= maxLon && lat >= minLat && lat <= maxLat) {
+                        count++;
+                    }
+                }
+            } else {
+                for (int child = childEnd[node] - 1; child >= childStart[node]; child--) {
+                    stack[top++] = child;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Groups {@code [from, to)} of the (already ordered) source boxes into nodes of
+     * {@link #NODE_CAPACITY} children written from {@code out}. Returns the index after the last
+     * node written.
+     */
+    private static int group(int[] srcMinLat, int[] srcMinLon, int[] srcMaxLat, int[] srcMaxLon, int from, int to,
+                             int[] minLat, int[] minLon, int[] maxLat, int[] maxLon, int[] start, int[] end, int out) {
+        if (from == to) {
+            minLat[out] = Integer.MAX_VALUE;
+            minLon[out] = Integer.MAX_VALUE;
+            maxLat[out] = Integer.MIN_VALUE;
+            maxLon[out] = Integer.MIN_VALUE;
+            start[out] = from;
+            end[out] = to;
+            return out + 1;
+        }
+        for (int first = from; first < to; first += NODE_CAPACITY, out++) {
+            int last = Math.min(first + NODE_CAPACITY, to);
+            int loLat = Integer.MAX_VALUE;
+            int loLon = Integer.MAX_VALUE;
+            int hiLat = Integer.MIN_VALUE;
+            int hiLon = Integer.MIN_VALUE;
+            for (int i = first; i < last; i++) {
+                loLat = Math.min(loLat, srcMinLat[i]);
+                loLon = Math.min(loLon, srcMinLon[i]);
+                hiLat = Math.max(hiLat, srcMaxLat[i]);
+                hiLon = Math.max(hiLon, srcMaxLon[i]);
+            }
+            minLat[out] = loLat;
+            minLon[out] = loLon;
+            maxLat[out] = hiLat;
+            maxLon[out] = hiLon;
+            start[out] = first;
+            end[out] = last;
+        }
+        return out;
+    }
+
+    /**
+     * Returns the STR order of {@code n} boxes: sorted into vertical slices by longitude centre,
+     * then by latitude centre within each slice.
+     */
+    private static int[] strOrder(int[] minLat, int[] maxLat, int[] minLon, int[] maxLon, int n) {
+        int leaves = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_CAPACITY;
+
+        final long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = sortKey(minLon[i], maxLon[i], i);
+        }
+        // Both sorts run in parallel on the calling fork-join pool (or the common pool) for large inputs.
+        Arrays.parallelSort(keys);
+        int slices = (n + sliceSize - 1) / sliceSize;
+        IntStream sliceIndexes = IntStream.range(0, slices);
+        if (n >= PARALLEL_THRESHOLD) {
+            sliceIndexes = sliceIndexes.parallel();
+        }
+        sliceIndexes.forEach(new IntConsumer() {
+            @Override
+            public void accept(int slice) {
+                int from = slice * sliceSize;
+                int to = Math.min(from + sliceSize, n);
+                for (int i = from; i < to; i++) {
+                    int index = (int) keys[i];
+                    keys[i] = sortKey(minLat[index], maxLat[index], index);
+                }
+                Arrays.sort(keys, from, to);
+            }
+        });
+
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /** Packs the centre of {@code [min, max]} above {@code index} so a plain long sort orders by centre. */
+    private static long sortKey(int min, int max, int index) {
+        int centre = (int) (((long) min + max) >> 1);
+        return ((long) centre << 32) | index;
+    }
+
+    /** Reorders {@code [offset, offset + order.length)} of every array according to {@code order}. */
+    private static void permute(int[] order, int offset, int[]... arrays) {
+        for (int[] array : arrays) {
+            int[] copy = Arrays.copyOfRange(array, offset, offset + order.length);
+            for (int i = 0; i < order.length; i++) {
+                array[offset + i] = copy[order[i]];
+            }
+        }
+    }
+
+    private static int[] readInts(IntBuffer in, int length) {
+        int[] values = new int[length];
+        in.get(values);
+        return values;
+    }
+}
@@ -0,0 +1,157 @@
+package com.lxd.route;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+/**
+ * Reads a JSON feature database (see {@code route_guide_db.json}) one feature at a time and hands
+ * each of them to a {@link FeatureSink}, so loading needs no more heap than the sink itself.
+ */
+public final class StreamingFeatureLoader {
+
+    /** Notified while a database is being loaded. */
+    public interface ProgressListener {
+        /**
+         * Called every {@code progressInterval} features and once more when loading finishes.
+         * {@code bytesRead} counts the input consumed so far, including read-ahead.
+         */
+        void onProgress(long features, long bytesRead);
+    }
+
+    private final long progressInterval;
+    private final ProgressListener listener;
+
+    /** Creates a loader that does not report progress. */
+    public StreamingFeatureLoader() {
+        this(Long.MAX_VALUE, null);
+    }
+
+    public StreamingFeatureLoader(long progressInterval, ProgressListener listener) {
+        if (progressInterval <= 0) {
+            throw new IllegalArgumentException("progressInterval must be positive");
+        }
+        this.progressInterval = progressInterval;
+        this.listener = listener;
+    }
+
+    /** Loads every feature of {@code file} into {@code sink} and returns how many there were. */
+    public long load(URL file, FeatureSink sink) throws IOException {
+        InputStream input = file.openStream();
+        try {
+            return load(input, sink);
+        } finally {
+            input.close();
+        }
+    }
+
+    /** Loads every feature of {@code input} into {@code sink} and returns how many there were. */
+    public long load(InputStream input, FeatureSink sink) throws IOException {
+        CountingInputStream counting = new CountingInputStream(input);
+        Reader reader = new InputStreamReader(counting, Charset.forName("UTF-8"));
+        JsonReader json = new JsonReader(reader);
+        try {
+            long count = 0;
+            json.beginObject();
+            while (json.hasNext()) {
+                if (!"feature".equals(json.nextName())) {
+                    json.skipValue();
+                    continue;
+                }
+                json.beginArray();
+                while (json.hasNext()) {
+                    readFeature(json, sink);
+                    if (++count % progressInterval == 0 && listener != null) {
+                        listener.onProgress(count, counting.count);
+                    }
+                }
+                json.endArray();
+            }
+            json.endObject();
+            if (listener != null) {
+                listener.onProgress(count, counting.count);
+            }
+            return count;
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports unexpected tokens and malformed numbers with unchecked exceptions.
+            throw new IOException("Malformed feature database: " + e.getMessage(), e);
+        } finally {
+            json.close();
+        }
+    }
+
+    /** Reads one {@code Feature} object. Field names follow the proto3 JSON mapping. */
+    static void readFeature(JsonReader json, FeatureSink sink) throws IOException {
+        int latitude = 0;
+        int longitude = 0;
+        String name = "";
+        json.beginObject();
+        while (json.hasNext()) {
+            String field = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+            } else if ("name".equals(field)) {
+                name = json.nextString();
+            } else if ("location".equals(field)) {
+                json.beginObject();
+                while (json.hasNext()) {
+                    String coordinate = json.nextName();
+                    if (json.peek() == JsonToken.NULL) {
+                        json.nextNull();
+                    } else if ("latitude".equals(coordinate)) {
+                        latitude = json.nextInt();
+                    } else if ("longitude".equals(coordinate)) {
+                        longitude = json.nextInt();
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        sink.accept(latitude, longitude, name);
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}